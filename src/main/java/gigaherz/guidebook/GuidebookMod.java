@@ -56,6 +56,17 @@ public class GuidebookMod
 
     // Config
     public static int bookGUIScale;
+    public static boolean useStreamingParser;
+    public static boolean parallelBookLoading;
+    public static int bookLoadingThreads;
+    public static boolean useBookCache;
+    public static boolean lazyChapterLoading;
+    public static boolean asyncBookReload;
+    public static boolean watchBookFolder;
+    public static int layoutCachePages;
+    public static int prefetchDistance;
+    public static boolean cachePageRendering;
+    public static int pageTextureCache;
 
     public static List<String> giveOnFirstJoin;
 
@@ -68,6 +79,17 @@ public class GuidebookMod
         Configuration config = new Configuration(event.getSuggestedConfigurationFile());
         String[] give = config.get("Books", "GiveOnFirstJoin", new String[0]).getStringList();
         bookGUIScale = config.get("general", "BookGUIScale", -1, "-1 for same as GUI scale, 0 for auto, 1+ for small/medium/large").getInt();
+        useStreamingParser = config.get("general", "UseStreamingParser", false, "Read book XML as a stream instead of building the whole document in memory first").getBoolean();
+        parallelBookLoading = config.get("general", "ParallelBookLoading", false, "Parse independent books at the same time on a pool of worker threads").getBoolean();
+        bookLoadingThreads = config.get("general", "BookLoadingThreads", 0, "Size of the book loading pool, 0 for one per processor").getInt();
+        useBookCache = config.get("general", "UseBookCache", false, "Keep a compiled copy of each book in config/gbook_cache, so unchanged books skip XML parsing").getBoolean();
+        lazyChapterLoading = config.get("general", "LazyChapterLoading", false, "Only read the outline of each book when loading, and build each chapter the first time it's shown. The compiled book cache is not used in this mode").getBoolean();
+        asyncBookReload = config.get("general", "AsyncBookReload", false, "Reload books on a background thread when resources are reloaded, keeping the previous ones available until it finishes").getBoolean();
+        watchBookFolder = config.get("general", "WatchBookFolder", false, "Watch config/books for changes, and reload only the books affected by them").getBoolean();
+        layoutCachePages = config.get("general", "LayoutCachePages", 1024, "Caps the memory used by laid out chapters kept for reuse or laid out ahead of time, counted in pages. 0 to disable").getInt();
+        prefetchDistance = config.get("general", "PrefetchDistance", 1, "How many chapters past the current one to lay out in the background while the book is open, 0 to disable").getInt();
+        cachePageRendering = config.get("general", "CachePageRendering", true, "Record the text and images of the open pages into display lists instead of drawing them again every frame").getBoolean();
+        pageTextureCache = config.get("general", "PageTextureCache", 0, "Render pages into off-screen textures and keep this many of the most recently shown ones, drawing each page as a single quad. At least 2 are kept, for the two pages shown at once. Takes precedence over CachePageRendering. 0 to disable").getInt();
         config.save();
 
         giveOnFirstJoin = Lists.newArrayList(give);
@@ -5,18 +5,25 @@ import gigaherz.guidebook.GuidebookMod;
 import gigaherz.guidebook.common.IModProxy;
 import gigaherz.guidebook.guidebook.BookDocument;
 import gigaherz.guidebook.guidebook.client.BookBakedModel;
+import gigaherz.guidebook.guidebook.client.BookFolderWatcher;
+import gigaherz.guidebook.guidebook.client.BookHandle;
 import gigaherz.guidebook.guidebook.client.BookRegistry;
+import gigaherz.guidebook.guidebook.client.BookSearchIndex;
 import gigaherz.guidebook.guidebook.client.GuiGuidebook;
+import gigaherz.guidebook.guidebook.client.ItemLookup;
 import gigaherz.guidebook.guidebook.conditions.AdvancementCondition;
 import gigaherz.guidebook.guidebook.conditions.BasicConditions;
 import gigaherz.guidebook.guidebook.conditions.CompositeCondition;
 import gigaherz.guidebook.guidebook.conditions.GameStageCondition;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.resources.IReloadableResourceManager;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.client.event.ModelRegistryEvent;
 import net.minecraftforge.client.model.ModelLoaderRegistry;
 import net.minecraftforge.client.model.obj.OBJLoader;
+import net.minecraftforge.client.resource.ISelectiveResourceReloadListener;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.client.registry.ClientRegistry;
 import net.minecraftforge.fml.common.Loader;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
@@ -56,6 +63,14 @@ public class ClientProxy implements IModProxy
             GameStageCondition.register();
 
         MinecraftForge.EVENT_BUS.post(new BookRegistryEvent());
+
+        if (GuidebookMod.watchBookFolder)
+            BookFolderWatcher.start();
+
+        ClientRegistry.registerKeyBinding(ItemLookup.KEY_LOOKUP);
+
+        ((IReloadableResourceManager) Minecraft.getMinecraft().getResourceManager())
+                .registerReloadListener((ISelectiveResourceReloadListener) BookSearchIndex::onResourcesReloaded);
     }
 
     @Override
@@ -67,7 +82,7 @@ public class ClientProxy implements IModProxy
     @Override
     public Collection<ResourceLocation> getBooksList()
     {
-        return BookRegistry.LOADED_BOOKS.keySet();
+        return BookRegistry.getLoadedBooks().keySet();
     }
 
     @Override
@@ -82,13 +97,6 @@ public class ClientProxy implements IModProxy
     @Override
     public String getBookName(String book)
     {
-        BookDocument bookDocument = BookRegistry.get(new ResourceLocation(book));
-        if (bookDocument != null)
-        {
-            String name = bookDocument.getBookName();
-            if (name != null)
-                return name;
-        }
-        return String.format("Guidebook - %s unknown", book);
+        return BookHandle.of(book).displayName;
     }
 }
@@ -1,9 +1,8 @@
 package gigaherz.guidebook.guidebook;
 
-import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Table;
 import com.google.common.primitives.Floats;
 import com.google.common.primitives.Ints;
 import gigaherz.guidebook.GuidebookMod;
@@ -30,12 +29,24 @@ import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
 public class BookDocument implements IConditionSource
@@ -51,15 +62,24 @@ public class BookDocument implements IConditionSource
     private ResourceLocation bookCover;
 
     final List<ChapterData> chapters = Lists.newArrayList();
-    private Table<Item, Integer, SectionRef> stackLinks = HashBasedTable.create();
+    private StackLinkIndex stackLinks = StackLinkIndex.EMPTY;
 
     final Map<String, Integer> chaptersByName = Maps.newHashMap();
     final Map<String, SectionRef> sectionsByName = Maps.newHashMap();
 
     private final Map<String, TemplateDefinition> templates = Maps.newHashMap();
     private final Map<String, Predicate<ConditionContext>> conditions = Maps.newHashMap();
+    private final List<String> includedLibraries = Lists.newArrayList();
 
     private IBookGraphics rendering;
+    private boolean hasLoadError;
+
+    // Only used while parsing with lazy chapters. The snapshots are what a chapter would have seen if parsed in place.
+    private Transformer chapterWriter;
+    private Map<String, TemplateDefinition> templatesSnapshot;
+    private Map<String, Predicate<ConditionContext>> conditionsSnapshot;
+
+    private ConditionContext lastConditionContext;
 
     public BookDocument(ResourceLocation bookLocation)
     {
@@ -83,26 +103,33 @@ public class BookDocument implements IConditionSource
         return bookCover;
     }
 
+    /**
+     * @return the condition result of the chapter from the last {@link #reevaluateConditions}, without building it
+     */
+    public boolean isChapterVisible(int i)
+    {
+        return chapters.get(i).conditionResult;
+    }
+
+    /**
+     * Returns the chapter, building its elements first if the book was parsed with lazy chapters.
+     */
     public ChapterData getChapter(int i)
     {
-        return chapters.get(i);
+        ChapterData chapter = chapters.get(i);
+        chapter.materialize();
+        return chapter;
     }
 
     @Nullable
     public SectionRef getStackLink(ItemStack stack)
     {
-        Item item = stack.getItem();
-        int damage = stack.getItemDamage();
+        return stackLinks.get(stack);
+    }
 
-        if (stackLinks.contains(item, damage))
-        {
-            return stackLinks.get(item, damage);
-        }
-        else if (stackLinks.contains(item, -1))
-        {
-            return stackLinks.get(item, -1);
-        }
-        return null;
+    public StackLinkIndex getStackLinks()
+    {
+        return stackLinks;
     }
 
     public float getFontSize()
@@ -123,6 +150,10 @@ public class BookDocument implements IConditionSource
         // TODO: Add <image> texture locations when implemented
         for (ChapterData chapter : chapters)
         {
+            // Nothing in a chapter needs stitching at the moment, so there's no point building the lazy ones for this
+            if (chapter.deferred != null)
+                continue;
+
             for (PageData page : chapter.sections)
             {
                 for (Element element : page.elements)
@@ -133,8 +164,99 @@ public class BookDocument implements IConditionSource
         }
     }
 
+    /**
+     * @return whether the elements of the chapter have been built; only ever <code>false</code> for lazy chapters
+     */
+    public boolean isChapterLoaded(int i)
+    {
+        return chapters.get(i).deferred == null;
+    }
+
+    /**
+     * @return the condition result of the section from the last {@link #reevaluateConditions}, without building its chapter
+     */
+    public boolean isSectionVisible(int chapter, int section)
+    {
+        ChapterData ch = chapters.get(chapter);
+        return ch.conditionResult && ch.sections.get(section).conditionResult;
+    }
+
+    /**
+     * Calls the visitor with every element of every chapter, including the ones inside paragraphs and panels,
+     * along with the section it's in. Lazy chapters that haven't been built yet are skipped, rather than built for this.
+     */
+    public void visitLoadedElements(BiConsumer<SectionRef, Element> visitor)
+    {
+        for (int i = 0; i < chapters.size(); i++)
+        {
+            visitChapterElements(i, visitor);
+        }
+    }
+
+    /**
+     * Like {@link #visitLoadedElements}, for a single chapter.
+     *
+     * @return <code>false</code> if the chapter is lazy and hasn't been built yet, in which case nothing was visited
+     */
+    public boolean visitChapterElements(int chapterIndex, BiConsumer<SectionRef, Element> visitor)
+    {
+        ChapterData chapter = chapters.get(chapterIndex);
+
+        // Same lock lazy chapters are built under, since this can run on the layout thread
+        synchronized (chapter)
+        {
+            if (chapter.deferred != null)
+                return false;
+
+            for (int i = 0; i < chapter.sections.size(); i++)
+            {
+                SectionRef section = new SectionRef(chapter.num, i);
+                for (Element element : chapter.sections.get(i).elements)
+                {
+                    element.visit(e -> visitor.accept(section, e));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calls the visitor with the id of every chapter and section that has one. Chapter ids come with the chapter's
+     * first section. Works on lazy chapters without building them.
+     */
+    public void visitIds(BiConsumer<SectionRef, String> visitor)
+    {
+        for (ChapterData chapter : chapters)
+        {
+            if (!Strings.isNullOrEmpty(chapter.id))
+                visitor.accept(new SectionRef(chapter.num, 0), chapter.id);
+
+            for (int i = 0; i < chapter.sections.size(); i++)
+            {
+                String id = chapter.sections.get(i).id;
+                if (!Strings.isNullOrEmpty(id))
+                    visitor.accept(new SectionRef(chapter.num, i), id);
+            }
+        }
+    }
+
+    /**
+     * @return the template libraries pulled in with &lt;include&gt;, in the order they were first included
+     */
+    public List<String> getIncludedLibraries()
+    {
+        return Collections.unmodifiableList(includedLibraries);
+    }
+
+    public boolean hasLoadError()
+    {
+        return hasLoadError;
+    }
+
     public void initializeWithLoadError(String error)
     {
+        hasLoadError = true;
+
         ChapterData ch = new ChapterData(0);
         chapters.add(ch);
 
@@ -146,15 +268,39 @@ public class BookDocument implements IConditionSource
     }
 
     public boolean parseBook(InputStream stream)
+    {
+        return parseBook(stream, GuidebookMod.useStreamingParser, GuidebookMod.lazyChapterLoading);
+    }
+
+    public boolean parseBook(InputStream stream, boolean useStreamingParser)
+    {
+        return parseBook(stream, useStreamingParser, false);
+    }
+
+    /**
+     * @param useStreamingParser <code>true</code> to read the XML with the StAX reader, one first-level node at a time,
+     *                           instead of building the whole DOM up front. Both backends produce the same book.
+     * @param lazyChapters       <code>true</code> to only read the ids and conditions of chapters and their sections,
+     *                           keeping the XML of each chapter aside until {@link #getChapter} first asks for it.
+     */
+    public boolean parseBook(InputStream stream, boolean useStreamingParser, boolean lazyChapters)
     {
         try
         {
+            if (lazyChapters)
+                chapterWriter = createChapterWriter();
+
             chapters.clear();
             bookName = "";
             bookCover = null;
             fontSize = DEFAULT_FONT_SIZE;
             chaptersByName.clear();
 
+            if (useStreamingParser)
+            {
+                return parseBookStreaming(stream);
+            }
+
             DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
             DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
             Document doc = dBuilder.parse(stream);
@@ -163,81 +309,117 @@ public class BookDocument implements IConditionSource
 
             Node root = doc.getChildNodes().item(0);
 
-            if (root.hasAttributes())
-            {
-                NamedNodeMap attributes = root.getAttributes();
-                Node n = attributes.getNamedItem("title");
-                if (n != null)
-                {
-                    bookName = n.getTextContent();
-                }
-                n = attributes.getNamedItem("cover");
-                if (n != null)
-                {
-                    bookCover = new ResourceLocation(n.getTextContent());
-                }
-                n = attributes.getNamedItem("fontSize");
-                if (n != null)
-                {
-                    Float f = Floats.tryParse(n.getTextContent());
-                    fontSize = f != null ? f : DEFAULT_FONT_SIZE;
-                }
-                n = attributes.getNamedItem("home");
-                if (n != null)
-                {
-                    String ref = n.getTextContent();
-                    home = SectionRef.fromString(ref);
-                }
-                n = attributes.getNamedItem("dependencies");
-                if (n != null)
-                {
-                    for (String s : n.getTextContent().split(","))
-                    {
-                        if (!Loader.isModLoaded(s))
-                        {
-                            initializeWithLoadError("Dependency not loaded: " + s);
-                            return false;
-                        }
-                    }
-                }
-            }
+            if (!parseBookAttributes(root))
+                return false;
 
             NodeList firstLevel = root.getChildNodes();
             for (int i = 0; i < firstLevel.getLength(); i++)
             {
-                Node firstLevelNode = firstLevel.item(i);
+                parseFirstLevelNode(firstLevel.item(i));
+            }
+        }
+        catch (IOException | ParserConfigurationException | SAXException | XMLStreamException | TransformerException e)
+        {
+            initializeWithLoadError(e.toString());
+        }
+        finally
+        {
+            chapterWriter = null;
+            templatesSnapshot = null;
+            conditionsSnapshot = null;
+        }
+        return true;
+    }
+
+    private boolean parseBookStreaming(InputStream stream) throws ParserConfigurationException, XMLStreamException, TransformerException
+    {
+        try (StreamingNodeReader nodes = new StreamingNodeReader(stream))
+        {
+            if (!parseBookAttributes(nodes.readRoot()))
+                return false;
+
+            Node firstLevelNode;
+            while ((firstLevelNode = nodes.readNextChild()) != null)
+            {
+                parseFirstLevelNode(firstLevelNode);
+            }
+        }
+        return true;
+    }
 
-                String nodeName = firstLevelNode.getNodeName();
-                if (nodeName.equals("template"))
-                {
-                    parseTemplateDefinition(firstLevelNode, templates);
-                }
-                else if (nodeName.equals("include"))
-                {
-                    NamedNodeMap attributes = firstLevelNode.getAttributes();
-                    Node n = attributes.getNamedItem("ref");
-                    TemplateLibrary tpl = TemplateLibrary.get(n.getTextContent());
-                    templates.putAll(tpl.templates);
-                }
-                else if (nodeName.equals("chapter"))
-                {
-                    parseChapter(firstLevelNode);
-                }
-                else if (nodeName.equals("stack-links"))
-                {
-                    parseStackLinks(firstLevelNode);
-                }
-                else if (nodeName.equals("conditions"))
+    private boolean parseBookAttributes(Node root)
+    {
+        if (root.hasAttributes())
+        {
+            NamedNodeMap attributes = root.getAttributes();
+            Node n = attributes.getNamedItem("title");
+            if (n != null)
+            {
+                bookName = n.getTextContent();
+            }
+            n = attributes.getNamedItem("cover");
+            if (n != null)
+            {
+                bookCover = new ResourceLocation(n.getTextContent());
+            }
+            n = attributes.getNamedItem("fontSize");
+            if (n != null)
+            {
+                Float f = Floats.tryParse(n.getTextContent());
+                fontSize = f != null ? f : DEFAULT_FONT_SIZE;
+            }
+            n = attributes.getNamedItem("home");
+            if (n != null)
+            {
+                String ref = n.getTextContent();
+                home = SectionRef.fromString(ref);
+            }
+            n = attributes.getNamedItem("dependencies");
+            if (n != null)
+            {
+                for (String s : n.getTextContent().split(","))
                 {
-                    parseConditions(firstLevelNode);
+                    if (!Loader.isModLoaded(s))
+                    {
+                        initializeWithLoadError("Dependency not loaded: " + s);
+                        return false;
+                    }
                 }
             }
         }
-        catch (IOException | ParserConfigurationException | SAXException e)
+        return true;
+    }
+
+    private void parseFirstLevelNode(Node firstLevelNode) throws TransformerException
+    {
+        String nodeName = firstLevelNode.getNodeName();
+        if (nodeName.equals("template"))
         {
-            initializeWithLoadError(e.toString());
+            parseTemplateDefinition(firstLevelNode, templates);
+        }
+        else if (nodeName.equals("include"))
+        {
+            NamedNodeMap attributes = firstLevelNode.getAttributes();
+            Node n = attributes.getNamedItem("ref");
+            String ref = n.getTextContent();
+            if (!includedLibraries.contains(ref))
+                includedLibraries.add(ref);
+            TemplateLibrary tpl = TemplateLibrary.get(ref);
+            templates.putAll(tpl.templates);
+            templatesSnapshot = null;
+        }
+        else if (nodeName.equals("chapter"))
+        {
+            parseChapter(firstLevelNode);
+        }
+        else if (nodeName.equals("stack-links"))
+        {
+            parseStackLinks(firstLevelNode);
+        }
+        else if (nodeName.equals("conditions"))
+        {
+            parseConditions(firstLevelNode);
         }
-        return true;
     }
 
     private void parseConditions(Node node)
@@ -264,6 +446,7 @@ public class BookDocument implements IConditionSource
             Predicate<ConditionContext> displayCondition = parseSingleCondition(this, condition);
 
             conditions.put(name, displayCondition);
+            conditionsSnapshot = null;
         }
     }
 
@@ -315,18 +498,32 @@ public class BookDocument implements IConditionSource
             return;
 
         templates.put(n.getTextContent(), page);
+        templatesSnapshot = null;
 
         parseChildElements(this, templateItem, page.elements, templates, true);
 
         attributes.removeNamedItem("id");
         page.attributes = attributes;
+        page.lock = templateItem.getOwnerDocument();
     }
 
-    private void parseChapter(Node chapterItem)
+    private void parseChapter(Node chapterItem) throws TransformerException
     {
         ChapterData chapter = new ChapterData(chapters.size());
         chapters.add(chapter);
 
+        if (chapterWriter != null)
+        {
+            if (templatesSnapshot == null)
+                templatesSnapshot = ImmutableMap.copyOf(templates);
+            if (conditionsSnapshot == null)
+                conditionsSnapshot = ImmutableMap.copyOf(conditions);
+
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            chapterWriter.transform(new DOMSource(chapterItem), new StreamResult(xml));
+            chapter.deferred = new DeferredChapter(xml.toByteArray(), templatesSnapshot, conditionsSnapshot);
+        }
+
         if (chapterItem.hasAttributes())
         {
             NamedNodeMap attributes = chapterItem.getAttributes();
@@ -397,7 +594,17 @@ public class BookDocument implements IConditionSource
             }
         }
 
-        parseChildElements(this, pageItem, page.elements, templates, true);
+        // Lazy chapters only need the outline for now, the elements come later from materialize()
+        if (chapter.deferred == null)
+            parseChildElements(this, pageItem, page.elements, templates, true);
+    }
+
+    private static Transformer createChapterWriter() throws TransformerException
+    {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        return transformer;
     }
 
 
@@ -519,7 +726,7 @@ public class BookDocument implements IConditionSource
                 TemplateDefinition tDef = templates.get(nodeName);
 
                 ElementPanel t = new ElementPanel();
-                t.parse(book, tDef.attributes);
+                tDef.parseAttributes(book, t);
 
                 if (elementItem.hasAttributes())
                 {
@@ -641,6 +848,7 @@ public class BookDocument implements IConditionSource
 
     private void parseStackLinks(Node refsItem)
     {
+        StackLinkIndex.Builder links = stackLinks.toBuilder();
         NodeList refsList = refsItem.getChildNodes();
         for (int j = 0; j < refsList.getLength(); j++)
         {
@@ -664,18 +872,129 @@ public class BookDocument implements IConditionSource
                             {
                                 // meta="*" -> wildcard
                                 if (meta.getTextContent().equals("*"))
-                                    damage_value = -1;
+                                    damage_value = StackLinkIndex.WILDCARD;
                                 else
                                     damage_value = Ints.tryParse(meta.getTextContent());
                             }
 
                             String ref = refItem.getTextContent();
-                            stackLinks.put(item, damage_value, SectionRef.fromString(ref));
+                            links.put(item, damage_value, SectionRef.fromString(ref));
                         }
                     }
                 }
             }
         }
+        stackLinks = links.build();
+    }
+
+    /**
+     * Writes the parsed book for {@link #readCompiled}. Templates are not written, since they have already been
+     * applied to the elements that use them.
+     */
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        for (ChapterData chapter : chapters)
+        {
+            if (chapter.deferred != null)
+                throw new NotSerializableException("lazy chapters");
+        }
+
+        out.writeString(bookName);
+        out.writeResourceLocation(bookCover);
+        out.writeFloat(fontSize);
+        out.writeSectionRef(home);
+
+        out.writeInt(includedLibraries.size());
+        for (String library : includedLibraries)
+        {
+            out.writeString(library);
+        }
+
+        out.writeInt(conditions.size());
+        for (Map.Entry<String, Predicate<ConditionContext>> entry : conditions.entrySet())
+        {
+            out.writeString(entry.getKey());
+            out.defineCondition(entry.getValue());
+        }
+
+        out.writeInt(chapters.size());
+        for (ChapterData chapter : chapters)
+        {
+            out.writeString(chapter.id);
+            out.writeCondition(chapter.condition);
+            out.writeInt(chapter.sections.size());
+            for (PageData section : chapter.sections)
+            {
+                out.writeBoolean(section instanceof PageGroup);
+                out.writeString(section.id);
+                out.writeCondition(section.condition);
+                out.writeElements(section.elements);
+            }
+        }
+
+        stackLinks.writeCompiled(out);
+    }
+
+    /**
+     * Fills this book from data written by {@link #writeCompiled}, as an alternative to {@link #parseBook}.
+     */
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        chapters.clear();
+        chaptersByName.clear();
+        sectionsByName.clear();
+        stackLinks = StackLinkIndex.EMPTY;
+        conditions.clear();
+        includedLibraries.clear();
+
+        bookName = in.readString();
+        bookCover = in.readResourceLocation();
+        fontSize = in.readFloat();
+        home = in.readSectionRef();
+
+        int libraryCount = in.readInt();
+        for (int i = 0; i < libraryCount; i++)
+        {
+            includedLibraries.add(in.readString());
+        }
+
+        int conditionCount = in.readInt();
+        for (int i = 0; i < conditionCount; i++)
+        {
+            String name = in.readString();
+            conditions.put(name, in.defineCondition());
+        }
+
+        int chapterCount = in.readInt();
+        for (int i = 0; i < chapterCount; i++)
+        {
+            ChapterData chapter = new ChapterData(chapters.size());
+            chapters.add(chapter);
+
+            chapter.id = in.readString();
+            if (chapter.id != null)
+                chaptersByName.put(chapter.id, chapter.num);
+            chapter.condition = in.readCondition();
+
+            int sectionCount = in.readInt();
+            for (int j = 0; j < sectionCount; j++)
+            {
+                PageData page = in.readBoolean() ? new PageGroup() : new PageData();
+                int num = chapter.sections.size();
+                chapter.sections.add(page);
+
+                page.id = in.readString();
+                if (page.id != null)
+                {
+                    sectionsByName.put(page.id, new SectionRef(chapter.num, num));
+                    chapter.sectionsByName.put(page.id, num);
+                }
+                page.condition = in.readCondition();
+                in.readElements(page.elements);
+            }
+        }
+
+        stackLinks = StackLinkIndex.readCompiled(in);
     }
 
     public void setRendering(IBookGraphics rendering)
@@ -696,6 +1015,8 @@ public class BookDocument implements IConditionSource
 
     public boolean reevaluateConditions(ConditionContext ctx)
     {
+        lastConditionContext = ctx;
+
         boolean anyChanged = false;
         for (ChapterData chapter : chapters)
         {
@@ -715,17 +1036,126 @@ public class BookDocument implements IConditionSource
         public final List<PageData> sections = Lists.newArrayList();
         public final Map<String, Integer> sectionsByName = Maps.newHashMap();
 
+        // Volatile so it can be checked without waiting for the chapter to be built
+        private volatile DeferredChapter deferred;
+        private boolean visibilityChanged;
+        // Set once a lazy chapter is built, until the main thread evaluates the conditions of the new elements
+        private boolean conditionsPending;
+
         private ChapterData(int num)
         {
             this.num = num;
         }
 
-        public boolean reevaluateConditions(ConditionContext ctx)
+        /**
+         * @return whether this chapter, or anything inside it, changed condition results since the last {@link #clearDirty}
+         */
+        public boolean isDirty()
+        {
+            if (visibilityChanged)
+                return true;
+            for (PageData section : sections)
+            {
+                if (section.dirty)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Called once the chapter has been laid out with its current condition results.
+         */
+        public void clearDirty()
+        {
+            visibilityChanged = false;
+            for (PageData section : sections)
+            {
+                section.dirty = false;
+            }
+        }
+
+        /**
+         * Parses the elements of a lazy chapter into its existing sections, so section refs resolved before this stay valid.
+         */
+        synchronized void materialize()
+        {
+            if (deferred == null)
+                return;
+
+            try
+            {
+                Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(deferred.xml));
+                doc.getDocumentElement().normalize();
+
+                IConditionSource conditionSource = deferred.conditions::get;
+                int section = 0;
+                NodeList pagesList = doc.getDocumentElement().getChildNodes();
+                for (int j = 0; j < pagesList.getLength(); j++)
+                {
+                    Node pageItem = pagesList.item(j);
+
+                    String nodeName = pageItem.getNodeName();
+                    if (nodeName.equals("page") || nodeName.equals("section"))
+                    {
+                        parseChildElements(conditionSource, pageItem, sections.get(section++).elements, deferred.templates, true);
+                    }
+                }
+            }
+            catch (IOException | ParserConfigurationException | SAXException | BookParsingException e)
+            {
+                GuidebookMod.logger.error("Error building chapter {} of book {}", num, bookLocation, e);
+                for (PageData section : sections)
+                {
+                    section.elements.clear();
+                }
+                if (sections.size() > 0)
+                {
+                    sections.get(0).elements.add(ElementParagraph.of("Error loading chapter:"));
+                    sections.get(0).elements.add(ElementParagraph.of(TextFormatting.RED + e.toString()));
+                }
+            }
+
+            deferred = null;
+
+            // This may be the layout thread, and conditions read the player's state, so they are left to the main thread
+            conditionsPending = true;
+        }
+
+        /**
+         * The conditions of the outline were evaluated already, the elements built since then have to catch up.
+         * Needed before the chapter is laid out. Main thread only.
+         */
+        public synchronized void evaluatePendingConditions()
+        {
+            if (!conditionsPending)
+                return;
+            conditionsPending = false;
+
+            // If nothing was evaluated yet, the first reevaluateConditions covers them
+            if (lastConditionContext == null)
+                return;
+
+            for (PageData section : sections)
+            {
+                for (Element element : section.elements)
+                {
+                    element.reevaluateConditions(lastConditionContext);
+                }
+            }
+        }
+
+        /**
+         * Main thread only. Locked against {@link #materialize}, which may be filling the sections on the layout thread.
+         */
+        public synchronized boolean reevaluateConditions(ConditionContext ctx)
         {
+            conditionsPending = false;
+
             boolean oldValue = conditionResult;
             conditionResult = condition == null || condition.test(ctx);
 
             boolean anyChanged = conditionResult != oldValue;
+            visibilityChanged |= anyChanged;
             for (PageData section : sections)
             {
                 anyChanged |= section.reevaluateConditions(ctx);
@@ -734,6 +1164,24 @@ public class BookDocument implements IConditionSource
             return anyChanged;
         }
 
+        /**
+         * @return the results of every condition inside this chapter that can change its layout
+         */
+        public BitSet getConditionFingerprint()
+        {
+            BitSet bits = new BitSet();
+            int index = 0;
+            for (PageData section : sections)
+            {
+                bits.set(index++, section.conditionResult);
+                for (Element element : section.elements)
+                {
+                    index = element.fingerprintConditions(bits, index);
+                }
+            }
+            return bits;
+        }
+
         public void reflow(VisualChapter ch, Size pageSize)
         {
             for (BookDocument.PageData section : sections)
@@ -757,6 +1205,9 @@ public class BookDocument implements IConditionSource
 
         public final List<Element> elements = Lists.newArrayList();
 
+        // Set when a condition result in this section changed, until the chapter is laid out again
+        boolean dirty;
+
         public List<VisualPage> reflow(Size pageSize)
         {
             VisualPage page = new VisualPage();
@@ -783,6 +1234,7 @@ public class BookDocument implements IConditionSource
                 anyChanged |= element.reevaluateConditions(ctx);
             }
 
+            dirty |= anyChanged;
             return anyChanged;
         }
     }
@@ -875,4 +1327,18 @@ public class BookDocument implements IConditionSource
             return pages;
         }
     }
+
+    private static class DeferredChapter
+    {
+        final byte[] xml;
+        final Map<String, TemplateDefinition> templates;
+        final Map<String, Predicate<ConditionContext>> conditions;
+
+        DeferredChapter(byte[] xml, Map<String, TemplateDefinition> templates, Map<String, Predicate<ConditionContext>> conditions)
+        {
+            this.xml = xml;
+            this.templates = templates;
+            this.conditions = conditions;
+        }
+    }
 }
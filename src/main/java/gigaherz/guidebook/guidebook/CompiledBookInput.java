@@ -0,0 +1,182 @@
+package gigaherz.guidebook.guidebook;
+
+import com.google.common.collect.Lists;
+import gigaherz.guidebook.guidebook.conditions.*;
+import gigaherz.guidebook.guidebook.elements.*;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.Loader;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static gigaherz.guidebook.guidebook.CompiledBookOutput.*;
+
+/**
+ * Reads back what {@link CompiledBookOutput} wrote. Anything unexpected is reported as an {@link IOException},
+ * so a damaged cache entry is treated the same as a missing one.
+ */
+public class CompiledBookInput extends DataInputStream
+{
+    private final List<Predicate<ConditionContext>> definedConditions = Lists.newArrayList();
+
+    public CompiledBookInput(InputStream in)
+    {
+        super(in);
+    }
+
+    @Nullable
+    public String readString() throws IOException
+    {
+        int length = readInt();
+        if (length == -1)
+            return null;
+        if (length < 0)
+            throw new IOException("Invalid string length " + length);
+
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    public ResourceLocation readResourceLocation() throws IOException
+    {
+        String location = readString();
+        return location != null ? new ResourceLocation(location) : null;
+    }
+
+    @Nullable
+    public SectionRef readSectionRef() throws IOException
+    {
+        switch (readByte())
+        {
+            case 0:
+                return null;
+            case 1:
+                return new SectionRef(readInt(), readInt());
+            case 2:
+                return new SectionRef(readString(), readString());
+            default:
+                throw new IOException("Invalid section reference");
+        }
+    }
+
+    public ItemStack readItemStack() throws IOException
+    {
+        return new ItemStack(CompressedStreamTools.read(this));
+    }
+
+    public Element readElement() throws IOException
+    {
+        int type = readByte();
+        if (type < 0 || type >= ELEMENT_TYPES.size())
+            throw new IOException("Unknown element type " + type);
+
+        Element element;
+        if (type == ELEMENT_SPAN)
+        {
+            // The stored text has already been compacted and trimmed, doing it again changes nothing
+            element = new ElementSpan(readString(), false, false);
+        }
+        else if (type == ELEMENT_LINK)
+        {
+            element = new ElementLink(readString());
+        }
+        else
+        {
+            try
+            {
+                element = ELEMENT_TYPES.get(type).newInstance();
+            }
+            catch (InstantiationException | IllegalAccessException e)
+            {
+                throw new IOException("Could not create element", e);
+            }
+        }
+
+        element.readCompiled(this);
+        return element;
+    }
+
+    public void readElements(List<Element> elements) throws IOException
+    {
+        int count = readInt();
+        for (int i = 0; i < count; i++)
+        {
+            elements.add(readElement());
+        }
+    }
+
+    public Predicate<ConditionContext> defineCondition() throws IOException
+    {
+        Predicate<ConditionContext> condition = readConditionTree();
+        definedConditions.add(condition);
+        return condition;
+    }
+
+    @Nullable
+    public Predicate<ConditionContext> readCondition() throws IOException
+    {
+        int index = readInt();
+        if (index == CONDITION_NONE)
+            return null;
+        if (index == CONDITION_INLINE)
+            return readConditionTree();
+        if (index < 0 || index >= definedConditions.size())
+            throw new IOException("Unknown condition index " + index);
+        return definedConditions.get(index);
+    }
+
+    private Predicate<ConditionContext> readConditionTree() throws IOException
+    {
+        int type = readByte();
+        switch (type)
+        {
+            case CONDITION_TRUE:
+                return new BasicConditions.True();
+            case CONDITION_FALSE:
+                return new BasicConditions.False();
+            case CONDITION_MOD_LOADED:
+                return new BasicConditions.ModLoaded(readString());
+            case CONDITION_ITEM_EXISTS:
+                return new BasicConditions.ItemExists(readResourceLocation());
+            case CONDITION_ANY:
+                return new CompositeCondition.Any(readConditionChildren());
+            case CONDITION_ALL:
+                return new CompositeCondition.All(readConditionChildren());
+            case CONDITION_NOT:
+                return new CompositeCondition.Not(readConditionChildren());
+            case CONDITION_ADVANCEMENT_LOCKED:
+                return new AdvancementCondition.Locked(readResourceLocation());
+            case CONDITION_ADVANCEMENT_UNLOCKED:
+                return new AdvancementCondition.Unlocked(readResourceLocation());
+            case CONDITION_STAGE_LOCKED:
+            case CONDITION_STAGE_UNLOCKED:
+                if (!Loader.isModLoaded("gamestages"))
+                    throw new IOException("Game stage condition without Game Stages");
+                return type == CONDITION_STAGE_LOCKED
+                        ? new GameStageCondition.Locked(readString())
+                        : new GameStageCondition.Unlocked(readString());
+            default:
+                throw new IOException("Unknown condition type " + type);
+        }
+    }
+
+    private List<Predicate<ConditionContext>> readConditionChildren() throws IOException
+    {
+        int count = readInt();
+        List<Predicate<ConditionContext>> children = Lists.newArrayList();
+        for (int i = 0; i < count; i++)
+        {
+            children.add(readCondition());
+        }
+        return children;
+    }
+}
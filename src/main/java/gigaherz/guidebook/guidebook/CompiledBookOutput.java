@@ -0,0 +1,224 @@
+package gigaherz.guidebook.guidebook;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import gigaherz.guidebook.guidebook.conditions.*;
+import gigaherz.guidebook.guidebook.elements.*;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.Loader;
+
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Writes a parsed {@link BookDocument} in the binary form read back by {@link CompiledBookInput}.
+ * Anything this doesn't know how to write (elements or conditions added by other mods, leftover template
+ * placeholders) throws {@link NotSerializableException}, and the book is simply not cached.
+ */
+public class CompiledBookOutput extends DataOutputStream
+{
+    // Exact classes only, so a subclass from another mod never gets written as its parent.
+    static final List<Class<? extends Element>> ELEMENT_TYPES = ImmutableList.of(
+            ElementBreak.class, ElementImage.class, ElementLink.class, ElementPanel.class,
+            ElementParagraph.class, ElementRecipe.class, ElementSpan.class, ElementStack.class);
+
+    static final int ELEMENT_LINK = ELEMENT_TYPES.indexOf(ElementLink.class);
+    static final int ELEMENT_SPAN = ELEMENT_TYPES.indexOf(ElementSpan.class);
+
+    static final int CONDITION_NONE = -1;
+    static final int CONDITION_INLINE = -2;
+
+    static final int CONDITION_TRUE = 0;
+    static final int CONDITION_FALSE = 1;
+    static final int CONDITION_MOD_LOADED = 2;
+    static final int CONDITION_ITEM_EXISTS = 3;
+    static final int CONDITION_ANY = 4;
+    static final int CONDITION_ALL = 5;
+    static final int CONDITION_NOT = 6;
+    static final int CONDITION_ADVANCEMENT_LOCKED = 7;
+    static final int CONDITION_ADVANCEMENT_UNLOCKED = 8;
+    static final int CONDITION_STAGE_LOCKED = 9;
+    static final int CONDITION_STAGE_UNLOCKED = 10;
+
+    private final Map<Predicate<ConditionContext>, Integer> definedConditions = Maps.newIdentityHashMap();
+
+    public CompiledBookOutput(OutputStream out)
+    {
+        super(out);
+    }
+
+    public void writeString(@Nullable String value) throws IOException
+    {
+        if (value == null)
+        {
+            writeInt(-1);
+            return;
+        }
+
+        // writeUTF would cap paragraphs at 64k
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        write(bytes);
+    }
+
+    public void writeResourceLocation(@Nullable ResourceLocation location) throws IOException
+    {
+        writeString(location != null ? location.toString() : null);
+    }
+
+    public void writeSectionRef(@Nullable SectionRef ref) throws IOException
+    {
+        if (ref == null)
+        {
+            writeByte(0);
+        }
+        else if (ref.resolvedNames)
+        {
+            writeByte(1);
+            writeInt(ref.chapter);
+            writeInt(ref.page);
+        }
+        else
+        {
+            writeByte(2);
+            writeString(ref.chapterName);
+            writeString(ref.pageName);
+        }
+    }
+
+    public void writeItemStack(ItemStack stack) throws IOException
+    {
+        CompressedStreamTools.write(stack.writeToNBT(new NBTTagCompound()), this);
+    }
+
+    public void writeElement(Element element) throws IOException
+    {
+        int type = ELEMENT_TYPES.indexOf(element.getClass());
+        if (type < 0)
+            throw new NotSerializableException(element.getClass().getName());
+
+        writeByte(type);
+        if (type == ELEMENT_SPAN || type == ELEMENT_LINK)
+            writeString(((ElementSpan) element).text);
+        element.writeCompiled(this);
+    }
+
+    public void writeElements(List<Element> elements) throws IOException
+    {
+        writeInt(elements.size());
+        for (Element element : elements)
+        {
+            writeElement(element);
+        }
+    }
+
+    /**
+     * Writes a named condition from the book's conditions block. Later references to the same instance are written as an index.
+     */
+    public void defineCondition(Predicate<ConditionContext> condition) throws IOException
+    {
+        writeConditionTree(condition);
+        definedConditions.put(condition, definedConditions.size());
+    }
+
+    public void writeCondition(@Nullable Predicate<ConditionContext> condition) throws IOException
+    {
+        if (condition == null)
+        {
+            writeInt(CONDITION_NONE);
+            return;
+        }
+
+        Integer index = definedConditions.get(condition);
+        if (index != null)
+        {
+            writeInt(index);
+            return;
+        }
+
+        writeInt(CONDITION_INLINE);
+        writeConditionTree(condition);
+    }
+
+    private void writeConditionTree(Predicate<ConditionContext> condition) throws IOException
+    {
+        Class<?> type = condition.getClass();
+        if (type == BasicConditions.True.class)
+        {
+            writeByte(CONDITION_TRUE);
+        }
+        else if (type == BasicConditions.False.class)
+        {
+            writeByte(CONDITION_FALSE);
+        }
+        else if (type == BasicConditions.ModLoaded.class)
+        {
+            writeByte(CONDITION_MOD_LOADED);
+            writeString(((BasicConditions.ModLoaded) condition).modId);
+        }
+        else if (type == BasicConditions.ItemExists.class)
+        {
+            writeByte(CONDITION_ITEM_EXISTS);
+            writeResourceLocation(((BasicConditions.ItemExists) condition).item);
+        }
+        else if (type == CompositeCondition.Any.class)
+        {
+            writeByte(CONDITION_ANY);
+            writeConditionChildren((CompositeCondition) condition);
+        }
+        else if (type == CompositeCondition.All.class)
+        {
+            writeByte(CONDITION_ALL);
+            writeConditionChildren((CompositeCondition) condition);
+        }
+        else if (type == CompositeCondition.Not.class)
+        {
+            writeByte(CONDITION_NOT);
+            writeConditionChildren((CompositeCondition) condition);
+        }
+        else if (type == AdvancementCondition.Locked.class)
+        {
+            writeByte(CONDITION_ADVANCEMENT_LOCKED);
+            writeResourceLocation(((AdvancementCondition) condition).advancement);
+        }
+        else if (type == AdvancementCondition.Unlocked.class)
+        {
+            writeByte(CONDITION_ADVANCEMENT_UNLOCKED);
+            writeResourceLocation(((AdvancementCondition) condition).advancement);
+        }
+        // Checked last and only with the mod present, so GameStageCondition never gets loaded without it.
+        else if (Loader.isModLoaded("gamestages") && type == GameStageCondition.Locked.class)
+        {
+            writeByte(CONDITION_STAGE_LOCKED);
+            writeString(((GameStageCondition) condition).stageName);
+        }
+        else if (Loader.isModLoaded("gamestages") && type == GameStageCondition.Unlocked.class)
+        {
+            writeByte(CONDITION_STAGE_UNLOCKED);
+            writeString(((GameStageCondition) condition).stageName);
+        }
+        else
+        {
+            throw new NotSerializableException(type.getName());
+        }
+    }
+
+    private void writeConditionChildren(CompositeCondition condition) throws IOException
+    {
+        writeInt(condition.children.size());
+        for (Predicate<ConditionContext> child : condition.children)
+        {
+            writeCondition(child);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package gigaherz.guidebook.guidebook;
+
+import com.google.common.collect.Maps;
+import gigaherz.guidebook.GuidebookMod;
+import net.minecraft.creativetab.CreativeTabs;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.NonNullList;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.oredict.OreDictionary;
+
+import javax.annotation.Nullable;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * Wildcard and ore dictionary expansions, shared by every stack and recipe that asks for the same item or ore name.
+ * The returned arrays and stacks are shared, so they must not be modified; {@link #withCountAndTag} makes copies
+ * only for the stacks that need a different count or tag.
+ * Cleared when ores are registered and on resource reload, and safe to use from the book loading threads.
+ */
+@Mod.EventBusSubscriber(modid = GuidebookMod.MODID)
+public class ItemExpansionCache
+{
+    private static final Map<Item, ItemStack[]> subItems = Maps.newConcurrentMap();
+    private static final Map<String, OreExpansion> ores = Maps.newConcurrentMap();
+
+    /**
+     * @return the stacks the item shows in the creative search tab
+     */
+    public static ItemStack[] getSubItems(Item item)
+    {
+        ItemStack[] stacks = subItems.get(item);
+        if (stacks != null)
+            return stacks;
+
+        // Items and the ore dictionary expect to be used by one thread at a time, books may be parsed from several
+        synchronized (ItemExpansionCache.class)
+        {
+            return subItems.computeIfAbsent(item, i -> {
+                NonNullList<ItemStack> list = NonNullList.create();
+                i.getSubItems(CreativeTabs.SEARCH, list);
+                return list.toArray(new ItemStack[list.size()]);
+            });
+        }
+    }
+
+    /**
+     * @return the stacks registered for the ore name, with wildcard entries replaced by their sub-items
+     */
+    public static OreExpansion getOre(String oreName)
+    {
+        OreExpansion expansion = ores.get(oreName);
+        if (expansion != null)
+            return expansion;
+
+        synchronized (ItemExpansionCache.class)
+        {
+            return ores.computeIfAbsent(oreName, name -> {
+                // Don't create an entry for unknown names, books may be parsed from more than one thread
+                NonNullList<ItemStack> items = OreDictionary.getOres(name, false);
+
+                NonNullList<ItemStack> expanded = NonNullList.create();
+                BitSet fromWildcard = new BitSet();
+                for (ItemStack item : items)
+                {
+                    if (item.getMetadata() == OreDictionary.WILDCARD_VALUE && item.getHasSubtypes())
+                    {
+                        for (ItemStack subItem : getSubItems(item.getItem()))
+                        {
+                            fromWildcard.set(expanded.size());
+                            expanded.add(subItem);
+                        }
+                    }
+                    else
+                    {
+                        expanded.add(item);
+                    }
+                }
+
+                return new OreExpansion(expanded.toArray(new ItemStack[expanded.size()]), fromWildcard);
+            });
+        }
+    }
+
+    /**
+     * Returns the stacks with the given count and tag, copying only the ones that differ. The tag replaces the stack's
+     * own even when it's null or empty, the same as the expansions always did. Returns the same array if nothing had to change.
+     */
+    public static ItemStack[] withCountAndTag(ItemStack[] stacks, int count, @Nullable NBTTagCompound tag)
+    {
+        return withCountAndTag(stacks, count, tag, i -> true);
+    }
+
+    private static ItemStack[] withCountAndTag(ItemStack[] stacks, int count, @Nullable NBTTagCompound tag, IntPredicate tagged)
+    {
+        ItemStack[] result = stacks;
+        for (int i = 0; i < stacks.length; i++)
+        {
+            ItemStack stack = stacks[i];
+            boolean setTag = tagged.test(i);
+            if (stack.getCount() == count && (!setTag || Objects.equals(tag, stack.getTagCompound())))
+                continue;
+
+            if (result == stacks)
+                result = stacks.clone();
+
+            stack = stack.copy();
+            stack.setCount(count);
+            if (setTag)
+                stack.setTagCompound(tag);
+            result[i] = stack;
+        }
+        return result;
+    }
+
+    public static void clear()
+    {
+        subItems.clear();
+        ores.clear();
+    }
+
+    @SubscribeEvent
+    public static void oreRegistered(OreDictionary.OreRegisterEvent event)
+    {
+        // Sub-items don't depend on the ore dictionary, only the ore expansions have to go
+        ores.clear();
+    }
+
+    public static class OreExpansion
+    {
+        public final ItemStack[] stacks;
+        private final BitSet fromWildcard;
+
+        private OreExpansion(ItemStack[] stacks, BitSet fromWildcard)
+        {
+            this.stacks = stacks;
+            this.fromWildcard = fromWildcard;
+        }
+
+        /**
+         * Like {@link ItemExpansionCache#withCountAndTag}, except the tag only goes on the stacks expanded from wildcard entries.
+         */
+        public ItemStack[] withCountAndTag(int count, @Nullable NBTTagCompound tag)
+        {
+            return ItemExpansionCache.withCountAndTag(stacks, count, tag, fromWildcard::get);
+        }
+    }
+}
@@ -97,7 +97,7 @@ public class ItemGuidebook extends ItemRegistered
             String book = getBookLocation(stack);
             if (!Strings.isNullOrEmpty(book))
             {
-                tooltip.add(String.format("Book: " + book));
+                tooltip.add("Book: " + book);
             }
         }
     }
@@ -0,0 +1,204 @@
+package gigaherz.guidebook.guidebook;
+
+import com.google.common.collect.Maps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The stack links of a book: which section documents each item, by exact damage value or for any damage value.
+ * Built once while the book is parsed and never changed afterwards, so lookups need no locking.
+ */
+public class StackLinkIndex
+{
+    public static final int WILDCARD = -1;
+
+    public static final StackLinkIndex EMPTY = new StackLinkIndex(Collections.emptyMap(), 0);
+
+    private final Map<Item, ItemLinks> links;
+    private final int size;
+
+    private StackLinkIndex(Map<Item, ItemLinks> links, int size)
+    {
+        this.links = links;
+        this.size = size;
+    }
+
+    /**
+     * @return the section for this exact damage value if there is one, otherwise the one for any damage value
+     */
+    @Nullable
+    public SectionRef get(ItemStack stack)
+    {
+        ItemLinks itemLinks = links.get(stack.getItem());
+        if (itemLinks == null)
+            return null;
+
+        if (itemLinks.byDamage != null)
+        {
+            SectionRef ref = itemLinks.byDamage.get(stack.getItemDamage());
+            if (ref != null)
+                return ref;
+        }
+        return itemLinks.wildcard;
+    }
+
+    public boolean contains(Item item)
+    {
+        return links.containsKey(item);
+    }
+
+    /**
+     * @return every item with at least one link
+     */
+    public Set<Item> getItems()
+    {
+        return Collections.unmodifiableSet(links.keySet());
+    }
+
+    /**
+     * Calls the visitor for every link, with {@link #WILDCARD} as the damage value of links for any damage value.
+     */
+    public void forEach(LinkVisitor visitor)
+    {
+        for (Map.Entry<Item, ItemLinks> entry : links.entrySet())
+        {
+            ItemLinks itemLinks = entry.getValue();
+            if (itemLinks.byDamage != null)
+            {
+                for (Int2ObjectMap.Entry<SectionRef> link : itemLinks.byDamage.int2ObjectEntrySet())
+                {
+                    visitor.accept(entry.getKey(), link.getIntKey(), link.getValue());
+                }
+            }
+            if (itemLinks.wildcard != null)
+                visitor.accept(entry.getKey(), WILDCARD, itemLinks.wildcard);
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return a builder that starts with the links already in this index
+     */
+    public Builder toBuilder()
+    {
+        Builder builder = new Builder();
+        forEach(builder::put);
+        return builder;
+    }
+
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        out.writeInt(size);
+        for (Map.Entry<Item, ItemLinks> entry : links.entrySet())
+        {
+            ItemLinks itemLinks = entry.getValue();
+            if (itemLinks.byDamage != null)
+            {
+                for (Int2ObjectMap.Entry<SectionRef> link : itemLinks.byDamage.int2ObjectEntrySet())
+                {
+                    out.writeResourceLocation(entry.getKey().getRegistryName());
+                    out.writeInt(link.getIntKey());
+                    out.writeSectionRef(link.getValue());
+                }
+            }
+            if (itemLinks.wildcard != null)
+            {
+                out.writeResourceLocation(entry.getKey().getRegistryName());
+                out.writeInt(WILDCARD);
+                out.writeSectionRef(itemLinks.wildcard);
+            }
+        }
+    }
+
+    public static StackLinkIndex readCompiled(CompiledBookInput in) throws IOException
+    {
+        Builder links = new Builder();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++)
+        {
+            ResourceLocation itemName = in.readResourceLocation();
+            Item item = itemName != null ? Item.REGISTRY.getObject(itemName) : null;
+            if (item == null)
+                throw new IOException("Unknown item " + itemName);
+            links.put(item, in.readInt(), in.readSectionRef());
+        }
+        return links.build();
+    }
+
+    public interface LinkVisitor
+    {
+        void accept(Item item, int damage, SectionRef ref);
+    }
+
+    private static class ItemLinks
+    {
+        @Nullable
+        Int2ObjectMap<SectionRef> byDamage;
+        @Nullable
+        SectionRef wildcard;
+    }
+
+    public static class Builder
+    {
+        private final Map<Item, ItemLinks> links = Maps.newIdentityHashMap();
+        private int size;
+
+        /**
+         * Adds a link, replacing any earlier one for the same item and damage value.
+         */
+        public Builder put(Item item, int damage, SectionRef ref)
+        {
+            ItemLinks itemLinks = links.computeIfAbsent(item, k -> new ItemLinks());
+            if (damage == WILDCARD)
+            {
+                if (itemLinks.wildcard == null)
+                    size++;
+                itemLinks.wildcard = ref;
+            }
+            else
+            {
+                if (itemLinks.byDamage == null)
+                    itemLinks.byDamage = new Int2ObjectOpenHashMap<>();
+                if (itemLinks.byDamage.put(damage, ref) == null)
+                    size++;
+            }
+            return this;
+        }
+
+        public StackLinkIndex build()
+        {
+            if (links.isEmpty())
+                return EMPTY;
+
+            // Copied, so this builder can go on without changing the index
+            Map<Item, ItemLinks> copy = Maps.newIdentityHashMap();
+            for (Map.Entry<Item, ItemLinks> entry : links.entrySet())
+            {
+                ItemLinks source = entry.getValue();
+                ItemLinks itemLinks = new ItemLinks();
+                if (source.byDamage != null)
+                {
+                    Int2ObjectOpenHashMap<SectionRef> byDamage = new Int2ObjectOpenHashMap<>(source.byDamage);
+                    byDamage.trim();
+                    itemLinks.byDamage = byDamage;
+                }
+                itemLinks.wildcard = source.wildcard;
+                copy.put(entry.getKey(), itemLinks);
+            }
+            return new StackLinkIndex(copy, size);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package gigaherz.guidebook.guidebook;
+
+import com.google.common.base.Strings;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reads a book from a StAX event stream and hands out the first-level nodes of the root element one at a time.
+ * Each of those is built as a small standalone DOM fragment, with the same node layout that DocumentBuilder + normalize()
+ * would have produced, so the existing Node-based parsing code can consume it unchanged while only one chapter
+ * (or template, or condition block) lives in memory at once.
+ */
+public class StreamingNodeReader implements AutoCloseable
+{
+    // Without this, the JDK reader reports CDATA sections as plain characters, which the DOM backend keeps apart.
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final XMLStreamReader reader;
+    private final DocumentBuilder builder;
+
+    public StreamingNodeReader(InputStream stream) throws ParserConfigurationException, XMLStreamException
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        if (factory.isPropertySupported(REPORT_CDATA))
+            factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        this.reader = factory.createXMLStreamReader(stream);
+        this.builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    @Override
+    public void close() throws XMLStreamException
+    {
+        reader.close();
+    }
+
+    /**
+     * Advances to the root element and returns it, with its attributes but without any children.
+     */
+    public Node readRoot() throws XMLStreamException
+    {
+        while (reader.hasNext())
+        {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT)
+            {
+                Document doc = builder.newDocument();
+                Element root = createElement(doc);
+                doc.appendChild(root);
+                return root;
+            }
+        }
+        throw new XMLStreamException("Premature end of file.");
+    }
+
+    /**
+     * Reads the next child element of the root, including its whole subtree.
+     * Text and comments directly under the root are skipped, since nothing at that level looks at them.
+     *
+     * @return the element, or null once the end of the root element is reached
+     */
+    @Nullable
+    public Node readNextChild() throws XMLStreamException
+    {
+        while (reader.hasNext())
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    return readElement();
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    private Node readElement() throws XMLStreamException
+    {
+        Document doc = builder.newDocument();
+        Element top = createElement(doc);
+        doc.appendChild(top);
+
+        Deque<Node> open = new ArrayDeque<>();
+        open.push(top);
+        while (!open.isEmpty())
+        {
+            Node parent = open.peek();
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = createElement(doc);
+                    parent.appendChild(child);
+                    open.push(child);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    open.pop();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    appendText(doc, parent, reader.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    parent.appendChild(doc.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    parent.appendChild(doc.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    parent.appendChild(doc.createProcessingInstruction(reader.getPITarget(), Strings.nullToEmpty(reader.getPIData())));
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLStreamException("Premature end of file.");
+            }
+        }
+        return top;
+    }
+
+    // Adjacent character events are merged, the same way normalize() merges adjacent text nodes.
+    private static void appendText(Document doc, Node parent, String text)
+    {
+        if (text.isEmpty())
+            return;
+
+        Node last = parent.getLastChild();
+        if (last != null && last.getNodeType() == Node.TEXT_NODE)
+        {
+            ((Text) last).appendData(text);
+        }
+        else
+        {
+            parent.appendChild(doc.createTextNode(text));
+        }
+    }
+
+    private Element createElement(Document doc)
+    {
+        Element element = doc.createElement(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        // The DOM backend is not namespace-aware, so namespace declarations show up there as plain attributes.
+        for (int i = 0; i < reader.getNamespaceCount(); i++)
+        {
+            String prefix = reader.getNamespacePrefix(i);
+            element.setAttribute(Strings.isNullOrEmpty(prefix) ? "xmlns" : "xmlns:" + prefix, Strings.nullToEmpty(reader.getNamespaceURI(i)));
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+        {
+            element.setAttribute(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    private static String qualifiedName(@Nullable String prefix, String localName)
+    {
+        return Strings.isNullOrEmpty(prefix) ? localName : prefix + ":" + localName;
+    }
+}
@@ -3,6 +3,7 @@ package gigaherz.guidebook.guidebook.client;
 import gigaherz.common.client.ModelHandle;
 import gigaherz.guidebook.GuidebookMod;
 import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.GLAllocation;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.RenderHelper;
 import net.minecraft.client.renderer.Tessellator;
@@ -10,10 +11,8 @@ import net.minecraft.client.renderer.block.model.BakedQuad;
 import net.minecraft.client.renderer.block.model.IBakedModel;
 import net.minecraft.client.renderer.texture.TextureMap;
 import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
-import net.minecraft.client.renderer.vertex.VertexFormat;
 import org.lwjgl.opengl.GL11;
 
-import java.util.Arrays;
 import java.util.List;
 
 import static net.minecraft.client.renderer.RenderHelper.setColorBuffer;
@@ -30,6 +29,14 @@ public class AnimatedBookBackground
     private final ModelHandle book60 = ModelHandle.of(GuidebookMod.location("gui/book60.obj")).vertexFormat(DefaultVertexFormats.POSITION_TEX_COLOR_NORMAL);
     private final ModelHandle book90 = ModelHandle.of(GuidebookMod.location("gui/book90.obj")).vertexFormat(DefaultVertexFormats.POSITION_TEX_COLOR_NORMAL);
 
+    private static final int VERTEX_SIZE = DefaultVertexFormats.POSITION_TEX_COLOR_NORMAL.getIntegerSize();
+
+    // Shared by every book gui, the models are the same for all of them
+    private static final Keyframe[] keyframes = new Keyframe[4];
+    private static int[] blendBuffer = new int[0];
+    private static int openModelList = -1;
+    private static IBakedModel openListModel;
+
     private final GuiGuidebook gui;
 
     public AnimatedBookBackground(GuiGuidebook gui)
@@ -95,27 +102,32 @@ public class AnimatedBookBackground
             angleX = (angleT - partialTicks * angleSpeed) * 90;
 
         float blend;
+        int indexA;
         if (angleX <= 0)
         {
             angleX = 0;
+            indexA = 0;
             modelBookA = book00.get();
             modelBookB = null;
             blend = 0;
         }
         else if (angleX < 30)
         {
+            indexA = 0;
             modelBookA = book00.get();
             modelBookB = book30.get();
             blend = (angleX) / 30.0f;
         }
         else if (angleX < 60)
         {
+            indexA = 1;
             modelBookA = book30.get();
             modelBookB = book60.get();
             blend = (angleX - 30) / 30.0f;
         }
         else if (angleX < 90)
         {
+            indexA = 2;
             modelBookA = book60.get();
             modelBookB = book90.get();
             blend = (angleX - 60) / 30.0f;
@@ -123,6 +135,7 @@ public class AnimatedBookBackground
         else
         {
             angleX = 90;
+            indexA = 3;
             modelBookA = book90.get();
             modelBookB = null;
             blend = 0;
@@ -150,11 +163,15 @@ public class AnimatedBookBackground
 
         if (modelBookB != null)
         {
-            renderModelInterpolate(modelBookA, modelBookB, blend);
+            renderModelInterpolate(getKeyframe(indexA, modelBookA), getKeyframe(indexA + 1, modelBookB), blend);
+        }
+        else if (indexA == 0)
+        {
+            renderOpenModel(modelBookA);
         }
         else
         {
-            renderModel(modelBookA);
+            renderModel(getKeyframe(indexA, modelBookA));
         }
 
         RenderHelper.disableStandardItemLighting();
@@ -166,52 +183,111 @@ public class AnimatedBookBackground
         GlStateManager.disableDepth();
     }
 
-    private static void renderModel(IBakedModel model)
+    private static void renderOpenModel(IBakedModel model)
+    {
+        // Nothing about the open book changes from frame to frame, so it's sent once and replayed from then on
+        if (openModelList < 0 || openListModel != model)
+        {
+            if (openModelList < 0)
+                openModelList = GLAllocation.generateDisplayLists(1);
+            openListModel = model;
+            GlStateManager.glNewList(openModelList, GL11.GL_COMPILE);
+            renderModel(getKeyframe(0, model));
+            GlStateManager.glEndList();
+        }
+        GlStateManager.callList(openModelList);
+    }
+
+    private static void renderModel(Keyframe keyframe)
     {
         Tessellator tessellator = Tessellator.getInstance();
         BufferBuilder worldrenderer = tessellator.getBuffer();
         worldrenderer.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX_COLOR_NORMAL);
-        for (BakedQuad quad : model.getQuads(null, null, 0))
-        {
-            worldrenderer.addVertexData(quad.getVertexData());
-        }
+        worldrenderer.addVertexData(keyframe.vertexData);
         tessellator.draw();
     }
 
-    private static void renderModelInterpolate(IBakedModel modelA, IBakedModel modelB, float blend)
+    private static void renderModelInterpolate(Keyframe keyframeA, Keyframe keyframeB, float blend)
     {
-        VertexFormat fmt = DefaultVertexFormats.POSITION_TEX_COLOR_NORMAL;
+        int[] dataA = keyframeA.vertexData;
+        float[] positionsA = keyframeA.positions;
+        float[] positionsB = keyframeB.positions;
+
+        if (blendBuffer.length != dataA.length)
+            blendBuffer = new int[dataA.length];
+        int[] blended = blendBuffer;
+
+        // Everything but the position comes from the first model
+        System.arraycopy(dataA, 0, blended, 0, dataA.length);
+        int vertices = Math.min(positionsA.length, positionsB.length) / 3;
+        for (int v = 0; v < vertices; v++)
+        {
+            int o = v * VERTEX_SIZE;
+            int p = v * 3;
+            for (int k = 0; k < 3; k++)
+            {
+                float ax = positionsA[p + k];
+                blended[o + k] = Float.floatToRawIntBits(ax + blend * (positionsB[p + k] - ax));
+            }
+        }
+
         Tessellator tessellator = Tessellator.getInstance();
         BufferBuilder worldrenderer = tessellator.getBuffer();
-        worldrenderer.begin(GL11.GL_QUADS, fmt);
-        List<BakedQuad> generalQuadsA = modelA.getQuads(null, null, 0);
-        List<BakedQuad> generalQuadsB = modelB.getQuads(null, null, 0);
+        worldrenderer.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX_COLOR_NORMAL);
+        worldrenderer.addVertexData(blended);
+        tessellator.draw();
+    }
+
+    /**
+     * @return the unpacked data of the model for the given keyframe, unpacking it again if the model was reloaded
+     */
+    private static Keyframe getKeyframe(int index, IBakedModel model)
+    {
+        Keyframe keyframe = keyframes[index];
+        if (keyframe == null || keyframe.model != model)
+            keyframes[index] = keyframe = new Keyframe(model);
+        return keyframe;
+    }
 
-        int length = fmt.getSize();
+    /**
+     * The vertex data of all the quads of a model in one array, ready to send as is, and their positions as floats,
+     * so blending doesn't have to unpack them every frame.
+     */
+    private static class Keyframe
+    {
+        final IBakedModel model;
+        final int[] vertexData;
+        final float[] positions;
 
-        for (int i = 0; i < generalQuadsA.size(); i++)
+        Keyframe(IBakedModel model)
         {
-            BakedQuad quadA = generalQuadsA.get(i);
-            BakedQuad quadB = generalQuadsB.get(i);
+            this.model = model;
 
-            int[] dataA = quadA.getVertexData();
-            int[] dataB = quadB.getVertexData();
+            List<BakedQuad> quads = model.getQuads(null, null, 0);
+            int length = 0;
+            for (BakedQuad quad : quads)
+            {
+                length += quad.getVertexData().length;
+            }
 
-            int[] blended = Arrays.copyOf(dataA, dataA.length);
+            vertexData = new int[length];
+            int offset = 0;
+            for (BakedQuad quad : quads)
+            {
+                int[] data = quad.getVertexData();
+                System.arraycopy(data, 0, vertexData, offset, data.length);
+                offset += data.length;
+            }
 
-            for (int j = 0; j < 4; j++)
+            int vertices = length / VERTEX_SIZE;
+            positions = new float[vertices * 3];
+            for (int v = 0; v < vertices; v++)
             {
-                int o = (length / 4) * j;
                 for (int k = 0; k < 3; k++)
                 {
-                    float ax = Float.intBitsToFloat(dataA[o + k]);
-                    float bx = Float.intBitsToFloat(dataB[o + k]);
-                    blended[o + k] = Float.floatToRawIntBits(ax + blend * (bx - ax));
+                    positions[v * 3 + k] = Float.intBitsToFloat(vertexData[v * VERTEX_SIZE + k]);
                 }
             }
-
-            worldrenderer.addVertexData(blended);
         }
-        tessellator.draw();
     }
 }
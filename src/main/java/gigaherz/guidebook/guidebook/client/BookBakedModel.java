@@ -2,10 +2,13 @@ package gigaherz.guidebook.guidebook.client;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import gigaherz.common.client.ModelHandle;
 import gigaherz.guidebook.GuidebookMod;
 import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.ItemExpansionCache;
+import gigaherz.guidebook.guidebook.recipe.RecipeProvider;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.renderer.block.model.BakedQuad;
 import net.minecraft.client.renderer.block.model.IBakedModel;
@@ -33,9 +36,26 @@ public class BookBakedModel implements IBakedModel
     private static final ResourceLocation FAKE_LOCATION = GuidebookMod.location("models/block/custom/book");
     private static final ResourceLocation BASE_MODEL = GuidebookMod.location("block/book.obj");
 
+    private static final String NO_COVER = "";
+
+    // Bumped on resource reload, the retextured models may refer to sprites that are gone
+    private static volatile int generation;
+
     private final TextureAtlasSprite particle;
     private final IModelState state;
 
+    private final Map<String, IBakedModel> modelsByCover = Maps.newConcurrentMap();
+    private int cachedGeneration = generation;
+
+    private final ItemOverrideList overrides = new ItemOverrideList(Collections.emptyList())
+    {
+        @Override
+        public IBakedModel handleItemState(IBakedModel originalModel, ItemStack stack, @Nullable World world, @Nullable EntityLivingBase entity)
+        {
+            return getModelForStack(stack);
+        }
+    };
+
     public BookBakedModel(IModelState state, @Nullable TextureAtlasSprite particle)
     {
         this.state = state;
@@ -82,34 +102,50 @@ public class BookBakedModel implements IBakedModel
     @Override
     public ItemOverrideList getOverrides()
     {
-        return new ItemOverrideList(Collections.emptyList())
+        return overrides;
+    }
+
+    /**
+     * @return the book model with the cover of the book in the stack, retextured only the first time each cover is seen
+     */
+    private IBakedModel getModelForStack(ItemStack stack)
+    {
+        if (cachedGeneration != generation)
         {
-            @Override
-            public IBakedModel handleItemState(IBakedModel originalModel, ItemStack stack, World world, EntityLivingBase entity)
-            {
-                ModelHandle mh = ModelHandle.of(BASE_MODEL);
-
-                if (state != null)
-                {
-                    mh = mh.state(state);
-                }
-
-                NBTTagCompound tag = stack.getTagCompound();
-                if (tag != null)
-                {
-                    String book = tag.getString("Book");
-                    BookDocument bookDocument = BookRegistry.get(new ResourceLocation(book));
-                    if (bookDocument != null)
-                    {
-                        ResourceLocation cover = bookDocument.getBookCover();
-                        if (cover != null)
-                            mh = mh.replace("#CoverGraphics", cover.toString());
-                    }
-                }
-
-                return mh.get();
-            }
-        };
+            modelsByCover.clear();
+            cachedGeneration = generation;
+        }
+
+        String cover = NO_COVER;
+        NBTTagCompound tag = stack.getTagCompound();
+        if (tag != null)
+        {
+            String coverName = BookHandle.of(tag.getString("Book")).coverName;
+            if (coverName != null)
+                cover = coverName;
+        }
+
+        return modelsByCover.computeIfAbsent(cover, this::bakeWithCover);
+    }
+
+    private IBakedModel bakeWithCover(String cover)
+    {
+        ModelHandle mh = ModelHandle.of(BASE_MODEL);
+
+        if (state != null)
+        {
+            mh = mh.state(state);
+        }
+
+        if (!cover.equals(NO_COVER))
+            mh = mh.replace("#CoverGraphics", cover);
+
+        return mh.get();
+    }
+
+    static void invalidateCoverModels()
+    {
+        generation++;
     }
 
     private static class Model implements IModel
@@ -142,7 +178,10 @@ public class BookBakedModel implements IBakedModel
             if (particle != null)
                 textures.add(particle);
 
-            for (BookDocument renderer : BookRegistry.LOADED_BOOKS.values())
+            // The covers have to be known before stitching, so this is the one place that waits for an async reload
+            BookRegistry.awaitPendingReload();
+
+            for (BookDocument renderer : BookRegistry.getLoadedBooks().values())
             {
                 renderer.findTextures(textures);
             }
@@ -188,7 +227,16 @@ public class BookBakedModel implements IBakedModel
         @Override
         public void onResourceManagerReload(IResourceManager resourceManager)
         {
-            BookRegistry.parseAllBooks(resourceManager);
+            ItemExpansionCache.clear();
+            RecipeProvider.invalidateAllCaches();
+            PageRenderCache.invalidateAll();
+            PageTextureCache.invalidateAll();
+            invalidateCoverModels();
+
+            if (GuidebookMod.asyncBookReload)
+                BookRegistry.parseAllBooksAsync(resourceManager);
+            else
+                BookRegistry.parseAllBooks(resourceManager);
         }
     }
 }
@@ -0,0 +1,148 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
+import gigaherz.guidebook.guidebook.templates.TemplateLibrary;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.Loader;
+import net.minecraftforge.fml.common.ModContainer;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Compiled copies of parsed books, stored in config/gbook_cache.
+ * An entry is only used when the hash of the book source, language, mod version and mod list matches the one it was
+ * written with, and every template library the book included still hashes the same. Otherwise the book is parsed
+ * from XML again and the entry replaced.
+ */
+public class BookCache
+{
+    private static final int MAGIC = 0x47424B43; // GBKC
+    private static final int FORMAT_VERSION = 1;
+
+    private static String modListFingerprint;
+
+    @Nullable
+    public static BookDocument load(ResourceLocation location, byte[] source, String lang)
+    {
+        File file = getCacheFile(location);
+        if (!file.isFile())
+            return null;
+
+        try (CompiledBookInput in = new CompiledBookInput(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return null;
+
+            if (!computeKey(source, lang).equals(in.readString()))
+                return null;
+
+            int libraryCount = in.readInt();
+            for (int i = 0; i < libraryCount; i++)
+            {
+                String library = in.readString();
+                String hash = in.readString();
+                if (library == null || hash == null || !hash.equals(TemplateLibrary.getSourceHash(library)))
+                    return null;
+            }
+
+            BookDocument book = new BookDocument(location);
+            book.readCompiled(in);
+            return book;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            GuidebookMod.logger.warn("Ignoring damaged cache entry for book {}: {}", location, e.toString());
+            return null;
+        }
+    }
+
+    public static void store(BookDocument book, byte[] source, String lang)
+    {
+        if (book.hasLoadError())
+            return;
+
+        ResourceLocation location = book.getBookLocation();
+        File file = getCacheFile(location);
+        File temp = new File(file.getPath() + ".tmp");
+        try
+        {
+            Files.createDirectories(file.getParentFile().toPath());
+
+            try (CompiledBookOutput out = new CompiledBookOutput(new BufferedOutputStream(new FileOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeString(computeKey(source, lang));
+
+                out.writeInt(book.getIncludedLibraries().size());
+                for (String library : book.getIncludedLibraries())
+                {
+                    String hash = TemplateLibrary.getSourceHash(library);
+                    if (hash == null)
+                        throw new NotSerializableException("missing library " + library);
+                    out.writeString(library);
+                    out.writeString(hash);
+                }
+
+                book.writeCompiled(out);
+            }
+
+            // Written aside and moved into place, so books loaded in parallel never see half an entry
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (NotSerializableException e)
+        {
+            GuidebookMod.logger.debug("Book {} can't be cached: {}", location, e.getMessage());
+            temp.delete();
+            file.delete();
+        }
+        catch (IOException e)
+        {
+            GuidebookMod.logger.warn("Could not write cache entry for book {}", location, e);
+            temp.delete();
+        }
+    }
+
+    private static File getCacheFile(ResourceLocation location)
+    {
+        File cacheFolder = new File(Loader.instance().getConfigDir(), GuidebookMod.MODID + "_cache");
+        return new File(new File(cacheFolder, location.getResourceDomain()), location.getResourcePath() + ".bin");
+    }
+
+    private static String computeKey(byte[] source, String lang)
+    {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(source.length);
+        hasher.putBytes(source);
+        hasher.putString(lang, StandardCharsets.UTF_8);
+        hasher.putByte((byte) 0);
+        hasher.putString(GuidebookMod.VERSION, StandardCharsets.UTF_8);
+        hasher.putByte((byte) 0);
+        hasher.putString(getModListFingerprint(), StandardCharsets.UTF_8);
+        return hasher.hash().toString();
+    }
+
+    // Conditions and dependencies are resolved at parse time, so a different set of mods means a different book
+    private static synchronized String getModListFingerprint()
+    {
+        if (modListFingerprint == null)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (ModContainer mod : Loader.instance().getActiveModList())
+            {
+                sb.append(mod.getModId()).append('@').append(mod.getVersion()).append(';');
+            }
+            modListFingerprint = sb.toString();
+        }
+        return modListFingerprint;
+    }
+}
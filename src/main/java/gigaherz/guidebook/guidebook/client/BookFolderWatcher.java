@@ -0,0 +1,177 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import gigaherz.guidebook.GuidebookMod;
+import net.minecraft.client.Minecraft;
+import net.minecraft.util.ResourceLocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the config/books folder, and reloads only the books affected by a change, without a full resource reload.
+ * Book files map to the same locations loadRawBookFiles gives them, and files under resources/ to the locations the
+ * injected resource pack serves them at.
+ */
+public class BookFolderWatcher implements Runnable
+{
+    // Editors often save a file in several steps, so changes are collected until the folder has been quiet this long
+    private static final long SETTLE_TIME_MS = 250;
+
+    private static Thread thread;
+
+    private final Path booksFolder;
+    private final Path resourcesFolder;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedFolders = Maps.newHashMap();
+
+    public static synchronized void start()
+    {
+        if (thread != null)
+            return;
+
+        File booksFolder = BookRegistry.getBooksFolder();
+        try
+        {
+            if (!booksFolder.isDirectory() && !booksFolder.mkdirs())
+            {
+                GuidebookMod.logger.warn("The books folder could not be created, it won't be watched for changes.");
+                return;
+            }
+
+            BookFolderWatcher watcher = new BookFolderWatcher(booksFolder.toPath(), BookRegistry.getResourcesFolder().toPath());
+            thread = new Thread(watcher, "Guidebook Folder Watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        catch (IOException e)
+        {
+            GuidebookMod.logger.warn("Could not watch {} for changes", booksFolder, e);
+        }
+    }
+
+    private BookFolderWatcher(Path booksFolder, Path resourcesFolder) throws IOException
+    {
+        this.booksFolder = booksFolder;
+        this.resourcesFolder = resourcesFolder;
+        this.watchService = booksFolder.getFileSystem().newWatchService();
+        registerTree(booksFolder);
+    }
+
+    // The watch service only reports direct children, so every folder in the tree gets its own registration
+    private void registerTree(Path root) throws IOException
+    {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                watchedFolders.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watchService.take();
+
+                Set<Path> changed = Sets.newHashSet();
+                boolean overflow = false;
+                do
+                {
+                    overflow |= collectChanges(key, changed);
+                }
+                while ((key = watchService.poll(SETTLE_TIME_MS, TimeUnit.MILLISECONDS)) != null);
+
+                if (overflow)
+                {
+                    // Some events were lost, so there's no telling what changed
+                    Minecraft mc = Minecraft.getMinecraft();
+                    mc.addScheduledTask(() -> BookRegistry.parseAllBooksAsync(mc.getResourceManager()));
+                }
+                else
+                {
+                    dispatch(changed);
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // Stopped
+        }
+    }
+
+    private boolean collectChanges(WatchKey key, Set<Path> changed)
+    {
+        boolean overflow = false;
+        Path folder = watchedFolders.get(key);
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW || folder == null)
+            {
+                overflow = true;
+                continue;
+            }
+
+            Path path = folder.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path))
+            {
+                try
+                {
+                    registerTree(path);
+                }
+                catch (IOException e)
+                {
+                    GuidebookMod.logger.warn("Could not watch {} for changes", path, e);
+                }
+            }
+
+            changed.add(path);
+        }
+
+        if (!key.reset())
+            watchedFolders.remove(key);
+
+        return overflow;
+    }
+
+    private void dispatch(Set<Path> changed)
+    {
+        Set<ResourceLocation> changedBooks = Sets.newHashSet();
+        Set<ResourceLocation> changedResources = Sets.newHashSet();
+        for (Path path : changed)
+        {
+            if (path.startsWith(resourcesFolder))
+            {
+                if (!path.equals(resourcesFolder))
+                    changedResources.add(new ResourceLocation(GuidebookMod.MODID, relativePath(resourcesFolder, path)));
+            }
+            else if (path.getFileName().toString().endsWith(".xml"))
+            {
+                changedBooks.add(new ResourceLocation(GuidebookMod.MODID, relativePath(booksFolder, path)));
+            }
+        }
+
+        if (changedBooks.size() > 0 || changedResources.size() > 0)
+            BookRegistry.reloadChangedBooksAsync(changedBooks, changedResources);
+    }
+
+    private static String relativePath(Path base, Path sub)
+    {
+        return base.relativize(sub).toString().replace(File.separatorChar, '/');
+    }
+}
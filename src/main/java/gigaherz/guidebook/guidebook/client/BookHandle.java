@@ -0,0 +1,54 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.collect.Maps;
+import gigaherz.guidebook.guidebook.BookDocument;
+import net.minecraft.util.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * A book as named in the NBT of a guidebook stack, resolved against the loaded books once, so stack names, tooltips
+ * and cover models don't parse the name and look the book up every frame.
+ * Keyed by the NBT string itself: the tag hands out the same string every time, and strings keep their hash, so
+ * a lookup doesn't allocate. Dropped as a whole whenever a new set of books is published.
+ */
+public class BookHandle
+{
+    private static volatile Map<String, BookHandle> handles = Maps.newConcurrentMap();
+
+    public final ResourceLocation location;
+    @Nullable
+    public final BookDocument book;
+    public final String displayName;
+    @Nullable
+    public final ResourceLocation cover;
+    // The cover as a string, for the models that are cached by it
+    @Nullable
+    public final String coverName;
+
+    private BookHandle(String name)
+    {
+        location = new ResourceLocation(name);
+        book = BookRegistry.get(location);
+
+        String bookName = book != null ? book.getBookName() : null;
+        displayName = bookName != null ? bookName : String.format("Guidebook - %s unknown", name);
+        cover = book != null ? book.getBookCover() : null;
+        coverName = cover != null ? cover.toString() : null;
+    }
+
+    public static BookHandle of(String name)
+    {
+        return handles.computeIfAbsent(name, BookHandle::new);
+    }
+
+    /**
+     * Called after the loaded books change. Replaces the map rather than clearing it, so a lookup that started against
+     * the previous books can only ever put its result in the map that's being dropped.
+     */
+    static void invalidateAll()
+    {
+        handles = Maps.newConcurrentMap();
+    }
+}
@@ -1,8 +1,10 @@
 package gigaherz.guidebook.guidebook.client;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import gigaherz.guidebook.GuidebookMod;
@@ -10,6 +12,7 @@ import gigaherz.guidebook.guidebook.BookDocument;
 import gigaherz.guidebook.guidebook.recipe.RecipeProvider;
 import gigaherz.guidebook.guidebook.templates.TemplateLibrary;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiScreen;
 import net.minecraft.client.resources.FolderResourcePack;
 import net.minecraft.client.resources.IResource;
 import net.minecraft.client.resources.IResourceManager;
@@ -18,12 +21,15 @@ import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.fml.common.Loader;
 import net.minecraftforge.fml.relauncher.ReflectionHelper;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import javax.annotation.Nullable;
 import java.io.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static net.minecraftforge.fml.common.LoaderState.INITIALIZATION;
@@ -31,7 +37,14 @@ import static net.minecraftforge.fml.common.LoaderState.INITIALIZATION;
 public class BookRegistry
 {
     public static final Set<ResourceLocation> REGISTRY = Sets.newHashSet();
-    public static final Map<ResourceLocation, BookDocument> LOADED_BOOKS = Maps.newHashMap();
+
+    // Replaced as a whole once a reload has finished, never modified in place
+    private static volatile Map<ResourceLocation, BookDocument> loadedBooks = ImmutableMap.of();
+
+    private static final ExecutorService RELOAD_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Guidebook Reload").setDaemon(true).build());
+    private static CompletableFuture<Void> pendingReload = CompletableFuture.completedFuture(null);
+    private static volatile String loadedLanguage;
 
     public static void registerBook(ResourceLocation loc)
     {
@@ -43,16 +56,196 @@ public class BookRegistry
     @Nullable
     public static BookDocument get(ResourceLocation loc)
     {
-        return LOADED_BOOKS.get(loc);
+        return loadedBooks.get(loc);
+    }
+
+    /**
+     * @return the books from the last completed reload. The map is immutable, and stays consistent while a reload runs.
+     */
+    public static Map<ResourceLocation, BookDocument> getLoadedBooks()
+    {
+        return loadedBooks;
     }
 
     private static boolean initialized = false;
 
     public static void parseAllBooks(IResourceManager manager)
+    {
+        publish(loadAllBooks(manager, getCurrentLanguage()));
+    }
+
+    /**
+     * Parses every book on the reload thread, and publishes the result once all of them are done.
+     * Until then, readers keep seeing the previous set of books. Reloads run one at a time, in the order they were requested.
+     */
+    public static synchronized CompletableFuture<Void> parseAllBooksAsync(IResourceManager manager)
+    {
+        // Read here, the language manager belongs to the main thread
+        String lang = getCurrentLanguage();
+        pendingReload = CompletableFuture.runAsync(() -> publish(loadAllBooks(manager, lang)), RELOAD_EXECUTOR)
+                .exceptionally(e -> {
+                    GuidebookMod.logger.error("Error reloading books, keeping the previous ones", e);
+                    return null;
+                });
+        return pendingReload;
+    }
+
+    /**
+     * Waits for the last requested reload, for the few places that really need the new books, like texture stitching.
+     */
+    public static void awaitPendingReload()
+    {
+        CompletableFuture<Void> reload;
+        synchronized (BookRegistry.class)
+        {
+            reload = pendingReload;
+        }
+        reload.join();
+    }
+
+    /**
+     * Makes a new set of books visible, and drops everything that was derived from the previous ones.
+     * Locked, so a partial reload can check that the books it started from are still current before replacing them.
+     */
+    private static synchronized void publish(Map<ResourceLocation, BookDocument> books)
+    {
+        loadedBooks = books;
+        BookHandle.invalidateAll();
+        LayoutCache.clear();
+        TextMeasurer.clear();
+        ItemPageIndex.rebuild(books);
+        BookSearchIndex.rebuild(books);
+    }
+
+    /**
+     * Re-parses only the books affected by a change to their sources, and swaps them into the current set of books.
+     * Queued behind any other reload, and redone if a synchronous full reload publishes while it runs, so it always
+     * applies to the latest set.
+     *
+     * @param changedBooks     books in the config folder that were created, modified or deleted
+     * @param changedResources files in the config resource pack that changed: books are re-parsed if they are one of
+     *                         those, or include one of those as a template library
+     */
+    public static synchronized CompletableFuture<Void> reloadChangedBooksAsync(Set<ResourceLocation> changedBooks, Set<ResourceLocation> changedResources)
+    {
+        pendingReload = pendingReload.thenRunAsync(() -> reloadChangedBooks(changedBooks, changedResources), RELOAD_EXECUTOR)
+                .exceptionally(e -> {
+                    GuidebookMod.logger.error("Error reloading changed books", e);
+                    return null;
+                });
+        return pendingReload;
+    }
+
+    private static void reloadChangedBooks(Set<ResourceLocation> changedBooks, Set<ResourceLocation> changedResources)
+    {
+        while (!tryReloadChangedBooks(changedBooks, changedResources))
+        {
+            GuidebookMod.logger.debug("Books were reloaded while changes were being applied, applying them again");
+        }
+    }
+
+    /**
+     * @return <code>false</code> if other books were published while this was parsing, and nothing was published
+     */
+    private static boolean tryReloadChangedBooks(Set<ResourceLocation> changedBooks, Set<ResourceLocation> changedResources)
+    {
+        String lang = loadedLanguage;
+        if (lang == null)
+            return true; // Nothing loaded yet, the first full load will see the changes anyway
+
+        IResourceManager manager = Minecraft.getMinecraft().getResourceManager();
+        Map<ResourceLocation, BookDocument> current = loadedBooks;
+
+        Set<ResourceLocation> affected = Sets.newHashSet(changedBooks);
+        for (ResourceLocation resource : changedResources)
+        {
+            TemplateLibrary.invalidate(resource);
+
+            for (Map.Entry<ResourceLocation, BookDocument> entry : current.entrySet())
+            {
+                if (isBookSource(entry.getKey(), resource, lang)
+                        || entry.getValue().getIncludedLibraries().stream().anyMatch(ref -> resource.equals(new ResourceLocation(ref))))
+                {
+                    affected.add(entry.getKey());
+                }
+            }
+        }
+
+        if (affected.isEmpty())
+            return true;
+
+        Map<ResourceLocation, File> rawFiles = findRawBookFiles();
+        Map<ResourceLocation, BookDocument> books = Maps.newHashMap(current);
+        for (ResourceLocation loc : affected)
+        {
+            BookDocument book = null;
+
+            File file = rawFiles.get(loc);
+            if (file != null)
+                book = timedParse(loc, () -> parseBook(loc, file, lang));
+
+            // Same priority as a full load: the resource pack version is only used if the config folder has none
+            if (book == null && current.containsKey(loc) && hasBookResource(manager, loc, lang))
+                book = timedParse(loc, () -> parseBook(manager, loc, lang));
+
+            if (book != null)
+                books.put(loc, book);
+            else
+                books.remove(loc);
+        }
+
+        if (!publishIfCurrent(current, ImmutableMap.copyOf(books)))
+            return false;
+        GuidebookMod.logger.info("Reloaded {} changed books", affected.size());
+
+        Minecraft.getMinecraft().addScheduledTask(() -> {
+            GuiScreen screen = Minecraft.getMinecraft().currentScreen;
+            if (screen instanceof GuiGuidebook && affected.contains(((GuiGuidebook) screen).bookLocation))
+                ((GuiGuidebook) screen).onBookReloaded();
+        });
+        return true;
+    }
+
+    /**
+     * Publishes the books only if the current ones are still the ones they were derived from.
+     * The synchronous full reload publishes from the main thread, unordered with the reload thread.
+     */
+    private static synchronized boolean publishIfCurrent(Map<ResourceLocation, BookDocument> expected, Map<ResourceLocation, BookDocument> books)
+    {
+        if (loadedBooks != expected)
+            return false;
+        publish(books);
+        return true;
+    }
+
+    private static boolean isBookSource(ResourceLocation book, ResourceLocation resource, String lang)
+    {
+        return book.equals(resource) || getLocalizedLocation(book, lang).equals(resource);
+    }
+
+    private static boolean hasBookResource(IResourceManager manager, ResourceLocation location, String lang)
+    {
+        try
+        {
+            getBookResource(manager, location, lang);
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    private static String getCurrentLanguage()
+    {
+        return Minecraft.getMinecraft().getLanguageManager().getCurrentLanguage().getLanguageCode();
+    }
+
+    private static Map<ResourceLocation, BookDocument> loadAllBooks(IResourceManager manager, String lang)
     {
         TemplateLibrary.clear();
 
-        LOADED_BOOKS.clear();
+        Map<ResourceLocation, BookDocument> books = Maps.newHashMap();
 
         Set<ResourceLocation> toLoad = Sets.newHashSet(REGISTRY);
 
@@ -77,20 +270,100 @@ public class BookRegistry
             }
         }
 
-        loadRawBookFiles();
+        long start = System.nanoTime();
+        if (GuidebookMod.parallelBookLoading)
+        {
+            parseAllBooksParallel(manager, toLoad, lang, books);
+        }
+        else
+        {
+            loadRawBookFiles(lang, books);
 
-        String lang = Minecraft.getMinecraft().getLanguageManager().getCurrentLanguage().getLanguageCode();
-        for (ResourceLocation loc : toLoad)
+            for (ResourceLocation loc : toLoad)
+            {
+                if (!books.containsKey(loc))
+                {
+                    BookDocument book = timedParse(loc, () -> parseBook(manager, loc, lang));
+                    if (book != null)
+                        books.put(loc, book);
+                }
+            }
+        }
+        GuidebookMod.logger.info("Loaded {} books in {}ms", books.size(), (System.nanoTime() - start) / 1000000);
+
+        loadedLanguage = lang;
+        return ImmutableMap.copyOf(books);
+    }
+
+    /**
+     * Same result as the serial path, but every book is parsed as an independent task on a bounded pool.
+     * The results are merged into the books map from the reload thread only, in the same priority order:
+     * books from the config folder first, then books from resource packs for locations still free.
+     */
+    private static void parseAllBooksParallel(IResourceManager manager, Set<ResourceLocation> toLoad, String lang, Map<ResourceLocation, BookDocument> books)
+    {
+        Map<ResourceLocation, File> rawFiles = findRawBookFiles();
+
+        int threads = GuidebookMod.bookLoadingThreads > 0 ? GuidebookMod.bookLoadingThreads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
         {
-            if (!LOADED_BOOKS.containsKey(loc))
+            Map<ResourceLocation, ForkJoinTask<BookDocument>> rawTasks = Maps.newLinkedHashMap();
+            for (Map.Entry<ResourceLocation, File> entry : rawFiles.entrySet())
             {
-                BookDocument book = parseBook(manager, loc, lang);
-                if (book != null)
-                    LOADED_BOOKS.put(loc, book);
+                ResourceLocation loc = entry.getKey();
+                File file = entry.getValue();
+                rawTasks.put(loc, pool.submit(() -> timedParse(loc, () -> parseBook(loc, file, lang))));
+            }
+
+            Map<ResourceLocation, ForkJoinTask<BookDocument>> resourceTasks = Maps.newLinkedHashMap();
+            for (ResourceLocation loc : toLoad)
+            {
+                if (!rawFiles.containsKey(loc))
+                    resourceTasks.put(loc, pool.submit(() -> timedParse(loc, () -> parseBook(manager, loc, lang))));
+            }
+
+            mergeResults(rawTasks, books);
+
+            // A config book that didn't load leaves its location free, so the resource pack version gets its turn
+            for (ResourceLocation loc : toLoad)
+            {
+                if (rawFiles.containsKey(loc) && !books.containsKey(loc))
+                    resourceTasks.put(loc, pool.submit(() -> timedParse(loc, () -> parseBook(manager, loc, lang))));
             }
+
+            mergeResults(resourceTasks, books);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void mergeResults(Map<ResourceLocation, ForkJoinTask<BookDocument>> tasks, Map<ResourceLocation, BookDocument> books)
+    {
+        for (Map.Entry<ResourceLocation, ForkJoinTask<BookDocument>> entry : tasks.entrySet())
+        {
+            // join() rethrows whatever the parse threw, the same as the serial path would have
+            BookDocument book = entry.getValue().join();
+            if (book != null)
+                books.put(entry.getKey(), book);
         }
     }
 
+    @Nullable
+    private static BookDocument timedParse(ResourceLocation location, Supplier<BookDocument> parser)
+    {
+        long start = System.nanoTime();
+        BookDocument book = parser.get();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (book == null)
+            GuidebookMod.logger.debug("Book {} was skipped after {}ms", location, elapsed);
+        else
+            GuidebookMod.logger.debug("Parsed book {} in {}ms", location, elapsed);
+        return book;
+    }
+
     private static Type listType = new TypeToken<List<String>>()
     {
     }.getType();
@@ -107,71 +380,115 @@ public class BookRegistry
     @Nullable
     private static BookDocument parseBook(IResourceManager manager, ResourceLocation location, String lang)
     {
-        BookDocument bookDocument = new BookDocument(location);
         try
         {
-            ResourceLocation bookLocation = bookDocument.getBookLocation();
-            String domain = bookLocation.getResourceDomain();
-            String path = bookLocation.getResourcePath();
-            String pathWithoutExtension = path;
-            String extension = "";
-            int ext = path.lastIndexOf('.');
-            if (ext >= 0)
-            {
-                pathWithoutExtension = path.substring(0, ext);
-                extension = path.substring(ext);
-            }
-
-            String localizedPath = pathWithoutExtension + "." + lang + extension;
-            ResourceLocation localizedLoc = new ResourceLocation(domain, localizedPath);
-
-            IResource bookResource;
-            try
-            {
-                bookResource = manager.getResource(localizedLoc);
-            }
-            catch (IOException e)
-            {
-                bookResource = null;
-            }
-
-            if (bookResource == null)
-            {
-                bookResource = manager.getResource(bookLocation);
-            }
+            IResource bookResource = getBookResource(manager, location, lang);
             try (InputStream stream = bookResource.getInputStream())
             {
-                if (!bookDocument.parseBook(stream))
-                    return null;
+                return parseBookSource(location, IOUtils.toByteArray(stream), lang);
             }
         }
         catch (IOException e)
         {
+            BookDocument bookDocument = new BookDocument(location);
             bookDocument.initializeWithLoadError(e.toString());
+            return bookDocument;
         }
-        return bookDocument;
     }
 
-    @Nullable
-    private static BookDocument parseBook(ResourceLocation location, File file)
+    /**
+     * @return the translated version of the book for the given language if there is one, or the book itself
+     */
+    private static IResource getBookResource(IResourceManager manager, ResourceLocation location, String lang) throws IOException
     {
-        BookDocument bookDocument = new BookDocument(location);
         try
         {
-            InputStream stream = new FileInputStream(file);
-            if (!bookDocument.parseBook(stream))
-                return null;
+            return manager.getResource(getLocalizedLocation(location, lang));
         }
         catch (IOException e)
         {
+            return manager.getResource(location);
+        }
+    }
+
+    private static ResourceLocation getLocalizedLocation(ResourceLocation bookLocation, String lang)
+    {
+        String domain = bookLocation.getResourceDomain();
+        String path = bookLocation.getResourcePath();
+        String pathWithoutExtension = path;
+        String extension = "";
+        int ext = path.lastIndexOf('.');
+        if (ext >= 0)
+        {
+            pathWithoutExtension = path.substring(0, ext);
+            extension = path.substring(ext);
+        }
+
+        String localizedPath = pathWithoutExtension + "." + lang + extension;
+        return new ResourceLocation(domain, localizedPath);
+    }
+
+    @Nullable
+    private static BookDocument parseBook(ResourceLocation location, File file, String lang)
+    {
+        try (InputStream stream = new FileInputStream(file))
+        {
+            return parseBookSource(location, IOUtils.toByteArray(stream), lang);
+        }
+        catch (IOException e)
+        {
+            BookDocument bookDocument = new BookDocument(location);
             bookDocument.initializeWithLoadError(e.toString());
+            return bookDocument;
         }
+    }
+
+    /**
+     * Uses the compiled copy of the book when it's still up to date, and parses the XML otherwise.
+     */
+    @Nullable
+    private static BookDocument parseBookSource(ResourceLocation location, byte[] source, String lang)
+    {
+        // A cached book is always fully built, which is what lazy chapters are trying to avoid
+        boolean useCache = GuidebookMod.useBookCache && !GuidebookMod.lazyChapterLoading;
+
+        if (useCache)
+        {
+            BookDocument cached = BookCache.load(location, source, lang);
+            if (cached != null)
+                return cached;
+        }
+
+        BookDocument bookDocument = new BookDocument(location);
+        if (!bookDocument.parseBook(new ByteArrayInputStream(source)))
+            return null;
+
+        if (useCache)
+            BookCache.store(bookDocument, source, lang);
+
         return bookDocument;
     }
 
-    private static void loadRawBookFiles()
+    private static void loadRawBookFiles(String lang, Map<ResourceLocation, BookDocument> books)
+    {
+        for (Map.Entry<ResourceLocation, File> entry : findRawBookFiles().entrySet())
+        {
+            ResourceLocation loc = entry.getKey();
+
+            if (!books.containsKey(loc))
+            {
+                BookDocument book = timedParse(loc, () -> parseBook(loc, entry.getValue(), lang));
+                if (book != null)
+                    books.put(loc, book);
+            }
+        }
+    }
+
+    private static Map<ResourceLocation, File> findRawBookFiles()
     {
-        File booksFolder = new File(Loader.instance().getConfigDir(), "books");
+        Map<ResourceLocation, File> books = Maps.newLinkedHashMap();
+
+        File booksFolder = getBooksFolder();
 
         if (!booksFolder.exists())
         {
@@ -179,14 +496,14 @@ public class BookRegistry
             if (!booksFolder.mkdirs())
             {
                 GuidebookMod.logger.info("The books folder could not be created. Books can't be loaded from it.");
-                return;
+                return books;
             }
         }
 
         if (!booksFolder.exists() || !booksFolder.isDirectory())
         {
             GuidebookMod.logger.info("There's a file called books, but it's not a directory. Books can't be loaded from it.");
-            return;
+            return books;
         }
 
         Collection<File> xmlFiles = FileUtils.listFiles(booksFolder, new String[]{"xml"}, true);
@@ -196,15 +513,21 @@ public class BookRegistry
             if (f.isFile())
             {
                 ResourceLocation loc = new ResourceLocation(GuidebookMod.MODID, relativePath(booksFolder, f));
-
-                if (!LOADED_BOOKS.containsKey(loc))
-                {
-                    BookDocument book = parseBook(loc, f);
-                    if (book != null)
-                        LOADED_BOOKS.put(loc, book);
-                }
+                books.putIfAbsent(loc, f);
             }
         }
+
+        return books;
+    }
+
+    static File getBooksFolder()
+    {
+        return new File(Loader.instance().getConfigDir(), "books");
+    }
+
+    static File getResourcesFolder()
+    {
+        return new File(getBooksFolder(), "resources");
     }
 
     private static String relativePath(File base, File sub)
@@ -220,7 +543,7 @@ public class BookRegistry
         if (initialized) return;
         initialized = true;
 
-        File resourcesFolder = new File(new File(Loader.instance().getConfigDir(), "books"), "resources");
+        File resourcesFolder = getResourcesFolder();
 
         if (!resourcesFolder.exists())
         {
@@ -1,6 +1,7 @@
 package gigaherz.guidebook.guidebook.client;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import gigaherz.guidebook.GuidebookMod;
 import gigaherz.guidebook.guidebook.BookDocument;
 import gigaherz.guidebook.guidebook.IBookGraphics;
@@ -9,6 +10,7 @@ import gigaherz.guidebook.guidebook.drawing.*;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.FontRenderer;
 import net.minecraft.client.gui.Gui;
+import net.minecraft.client.gui.ScaledResolution;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.RenderHelper;
 import net.minecraft.item.ItemStack;
@@ -19,7 +21,7 @@ import org.lwjgl.opengl.GL11;
 
 import javax.annotation.Nullable;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Set;
 
 public class BookRendering implements IBookGraphics
 {
@@ -62,6 +64,9 @@ public class BookRendering implements IBookGraphics
     }
 
     final List<VisualChapter> chapters = Lists.newArrayList();
+    // The chapter each entry of chapters was laid out from, since hidden chapters are skipped
+    final List<BookDocument.ChapterData> chapterSources = Lists.newArrayList();
+    private final Set<Integer> prefetchRequested = Sets.newHashSet();
     private int lastProcessedChapter = 0;
 
     final java.util.Stack<PageRef> history = new java.util.Stack<>();
@@ -71,6 +76,13 @@ public class BookRendering implements IBookGraphics
 
     private float scalingFactor;
 
+    private final PageRenderCache renderCache = new PageRenderCache();
+    private final PageTextureCache textureCache = new PageTextureCache();
+    private float pixelsPerUnit;
+
+    private final ItemBatch itemBatch = new ItemBatch();
+    private boolean batchingItems;
+
     BookRendering(BookDocument book, GuiGuidebook gui)
     {
         this.book = book;
@@ -145,6 +157,13 @@ public class BookRendering implements IBookGraphics
 
         this.pageWidth = this.bookWidth / 2 - this.innerMargin - this.outerMargin;
         this.pageHeight = this.bookHeight - this.verticalMargin - this.bottomMargin;
+
+        // Anything queued before was for the old page size
+        prefetchRequested.clear();
+        renderCache.invalidate();
+        textureCache.invalidate();
+
+        this.pixelsPerUnit = new ScaledResolution(mc).getScaleFactor() * scalingFactor;
     }
 
     @Override
@@ -273,6 +292,25 @@ public class BookRendering implements IBookGraphics
         }
     }
 
+    int getCurrentChapter()
+    {
+        return currentChapter;
+    }
+
+    int getCurrentPair()
+    {
+        return currentPair;
+    }
+
+    /**
+     * Moves to the given position without adding it to the history, clamped to what exists in this book.
+     */
+    void restorePosition(int chapter, int pair)
+    {
+        currentChapter = Math.max(0, Math.min(book.chapterCount() - 1, chapter));
+        currentPair = Math.max(0, Math.min(getVisualChapter(currentChapter).totalPairs - 1, pair));
+    }
+
     private void pushHistory()
     {
         history.push(new PageRef(currentChapter, currentPair * 2));
@@ -281,6 +319,8 @@ public class BookRendering implements IBookGraphics
     @Override
     public int addString(int left, int top, String s, int color, float scale)
     {
+        flushItems();
+
         FontRenderer fontRenderer = gui.getFontRenderer();
 
         // Does scaling need to be performed?
@@ -332,26 +372,157 @@ public class BookRendering implements IBookGraphics
         return false;
     }
 
+    /**
+     * Brings the chapters laid out so far up to date after the book's conditions were reevaluated.
+     * Only chapters whose condition results changed are laid out again; the ones after them just have their
+     * startPair shifted by the difference. The current position and history follow the chapter they were in.
+     */
+    void refreshChangedChapters()
+    {
+        BookDocument.ChapterData currentSource = currentChapter < chapterSources.size() ? chapterSources.get(currentChapter) : null;
+        List<BookDocument.ChapterData> historySources = Lists.newArrayList();
+        for (PageRef ref : history)
+        {
+            historySources.add(ref.chapter < chapterSources.size() ? chapterSources.get(ref.chapter) : null);
+        }
+
+        int shift = 0;
+        int index = 0;
+        for (int i = 0; i < lastProcessedChapter; i++)
+        {
+            BookDocument.ChapterData bc = book.getChapter(i);
+            boolean dirty = bc.isDirty();
+            boolean listed = index < chapterSources.size() && chapterSources.get(index) == bc;
+
+            if (!bc.conditionResult)
+            {
+                if (listed)
+                {
+                    shift -= chapters.get(index).totalPairs;
+                    chapters.remove(index);
+                    chapterSources.remove(index);
+                }
+                bc.clearDirty();
+                continue;
+            }
+
+            if (!listed)
+            {
+                VisualChapter ch = layoutChapter(bc);
+                if (index > 0)
+                {
+                    VisualChapter prev = chapters.get(index - 1);
+                    ch.startPair = prev.startPair + prev.totalPairs;
+                }
+                shift += ch.totalPairs;
+                chapters.add(index, ch);
+                chapterSources.add(index, bc);
+            }
+            else if (dirty)
+            {
+                VisualChapter old = chapters.get(index);
+                VisualChapter ch = layoutChapter(bc);
+                ch.startPair = old.startPair + shift;
+                shift += ch.totalPairs - old.totalPairs;
+                chapters.set(index, ch);
+            }
+            else if (shift != 0)
+            {
+                chapters.get(index).startPair += shift;
+            }
+            index++;
+        }
+
+        prefetchRequested.clear();
+
+        currentChapter = findChapterIndex(currentSource, currentChapter);
+        currentPair = Math.max(0, Math.min(getVisualChapter(currentChapter).totalPairs - 1, currentPair));
+        for (int i = 0; i < history.size(); i++)
+        {
+            PageRef ref = history.get(i);
+            ref.chapter = findChapterIndex(historySources.get(i), ref.chapter);
+        }
+    }
+
+    private int findChapterIndex(@Nullable BookDocument.ChapterData source, int fallback)
+    {
+        int index = source != null ? chapterSources.indexOf(source) : -1;
+        if (index < 0)
+            index = Math.min(fallback, Math.max(0, chapters.size() - 1));
+        return index;
+    }
+
+    /**
+     * Queues the chapters after the current one that haven't been laid out yet, up to the configured distance,
+     * so they're already in the layout cache when the player gets there. Hidden chapters don't count.
+     */
+    void prefetchUpcomingChapters()
+    {
+        if (GuidebookMod.prefetchDistance <= 0 || !LayoutCache.isEnabled())
+            return;
+
+        int ahead = chapters.size() - 1 - currentChapter;
+        Size pageSize = new Size(pageWidth, pageHeight);
+        for (int i = lastProcessedChapter; i < book.chapterCount() && ahead < GuidebookMod.prefetchDistance; i++)
+        {
+            // The outline is enough to know if the chapter will be shown, without building a lazy chapter here
+            if (!book.isChapterVisible(i))
+                continue;
+
+            ahead++;
+            if (prefetchRequested.add(i))
+                LayoutPrefetcher.schedule(book, i, pageSize);
+        }
+    }
+
+    static VisualChapter reflowChapter(BookDocument.ChapterData bc, Size pageSize)
+    {
+        VisualChapter reflowed = new VisualChapter();
+        bc.reflow(reflowed, pageSize);
+        reflowed.totalPairs = (reflowed.pages.size() + 1) / 2;
+        for (VisualPage page : reflowed.pages)
+        {
+            page.buildHitGrids();
+        }
+        return reflowed;
+    }
+
+    private VisualChapter layoutChapter(BookDocument.ChapterData bc)
+    {
+        bc.evaluatePendingConditions();
+
+        Size pageSize = new Size(pageWidth, pageHeight);
+        VisualChapter layout = LayoutCache.get(bc, pageSize, book.getFontSize(), () -> reflowChapter(bc, pageSize));
+        bc.clearDirty();
+
+        // The layout may be shared with other renderings, the position in this book is not
+        VisualChapter ch = new VisualChapter();
+        ch.pages.addAll(layout.pages);
+        ch.pagesByName.putAll(layout.pagesByName);
+        ch.totalPairs = layout.totalPairs;
+        return ch;
+    }
+
     private VisualChapter getVisualChapter(int chapter)
     {
         while (chapters.size() <= chapter && lastProcessedChapter < book.chapterCount())
         {
             BookDocument.ChapterData bc = book.getChapter(lastProcessedChapter++);
             if (!bc.conditionResult)
+            {
+                bc.clearDirty();
                 continue;
+            }
 
-            VisualChapter ch = new VisualChapter();
+            VisualChapter ch = layoutChapter(bc);
             if (chapters.size() > 0)
             {
                 VisualChapter prev = chapters.get(chapters.size() - 1);
                 ch.startPair = prev.startPair + prev.totalPairs;
             }
 
-            Size pageSize = new Size(pageWidth, pageHeight);
-            bc.reflow(ch, pageSize);
-
-            ch.totalPairs = (ch.pages.size() + 1) / 2;
             chapters.add(ch);
+            chapterSources.add(bc);
         }
 
         if (chapter >= chapters.size())
@@ -369,14 +540,11 @@ public class BookRendering implements IBookGraphics
         Point offset = getPageOffset(isLeftPage);
         mX -= offset.x;
         mY -= offset.y;
-        for (VisualElement e : pg.children)
+        VisualElement e = pg.findClicked(mX, mY);
+        if (e != null)
         {
-            if (mX >= e.position.x && mX <= (e.position.x + e.size.width) &&
-                    mY >= e.position.y && mY <= (e.position.y + e.size.height))
-            {
-                e.click(this);
-                return true;
-            }
+            e.click(this);
+            return true;
         }
         return false;
     }
@@ -431,17 +599,7 @@ public class BookRendering implements IBookGraphics
         mX -= offset.x;
         mY -= offset.y;
 
-        for (VisualElement e : pg.children)
-        {
-            if (mX >= e.position.x && mX <= (e.position.x + e.size.width) &&
-                    mY >= e.position.y && mY <= (e.position.y + e.size.height))
-            {
-                if (e.wantsHover())
-                    return e;
-            }
-        }
-
-        return null;
+        return pg.findHovered(mX, mY);
     }
 
     @Override
@@ -478,22 +636,62 @@ public class BookRendering implements IBookGraphics
             return;
 
         VisualPage pg = ch.pages.get(page);
+        String cnt = String.valueOf(ch.startPair * 2 + page + 1);
 
         Point offset = getPageOffset((page & 1) == 0);
         GlStateManager.pushMatrix();
         GlStateManager.translate(offset.x, offset.y, 0);
 
-        for (VisualElement e : pg.children)
+        // Stacks are queued while the page draws, and drawn together once it's done
+        batchingItems = true;
+
+        if (PageTextureCache.isSupported())
+        {
+            textureCache.drawPage(this, pg, cnt, new Size(pageWidth, pageHeight), gui.getFontRenderer().getUnicodeFlag(), pixelsPerUnit);
+        }
+        else if (GuidebookMod.cachePageRendering)
         {
-            e.draw(this);
+            renderCache.drawPage(this, (page & 1) == 0, pg, cnt, gui.getFontRenderer().getUnicodeFlag());
         }
+        else
+        {
+            for (VisualElement e : pg.children)
+            {
+                e.draw(this);
+            }
 
-        String cnt = String.valueOf(ch.startPair * 2 + page + 1);
+            drawPageNumber(cnt);
+        }
+
+        flushItems();
+        batchingItems = false;
+
+        GlStateManager.popMatrix();
+    }
+
+    /**
+     * Draws the stacks queued so far, before something that has to go over them.
+     */
+    void flushItems()
+    {
+        if (!itemBatch.isEmpty())
+            itemBatch.flush(gui.getFontRenderer());
+    }
+
+    void drawPageNumber(String cnt)
+    {
         Size sz = measure(cnt);
 
         addString((pageWidth - sz.width) / 2, pageHeight + 2, cnt, 0xFF000000, 1.0f);
+    }
 
-        GlStateManager.popMatrix();
+    /**
+     * Frees what was kept to draw the pages faster, once the book is no longer shown.
+     */
+    void releaseRenderCache()
+    {
+        renderCache.invalidate();
+        textureCache.invalidate();
     }
 
     @Override
@@ -505,6 +703,12 @@ public class BookRendering implements IBookGraphics
     @Override
     public void drawItemStack(int left, int top, int z, ItemStack stack, int color, float scale)
     {
+        if (batchingItems)
+        {
+            itemBatch.add(left, top, z, stack, scale);
+            return;
+        }
+
         GlStateManager.enableDepth();
         GlStateManager.enableAlpha();
 
@@ -533,6 +737,8 @@ public class BookRendering implements IBookGraphics
         if (w == 0) w = sw;
         if (h == 0) h = sh;
 
+        flushItems();
+
         ResourceLocation locExpanded = new ResourceLocation(loc.getResourceDomain(), "textures/" + loc.getResourcePath() + ".png");
         gui.getRenderEngine().bindTexture(locExpanded);
 
@@ -561,109 +767,21 @@ public class BookRendering implements IBookGraphics
     @Override
     public Size measure(String text)
     {
-        FontRenderer font = gui.getFontRenderer();
-        int width = font.getStringWidth(text);
-        return new Size(width, font.FONT_HEIGHT);
-    }
-
-    private static boolean isFormatColor(char colorChar)
-    {
-        return colorChar >= '0' && colorChar <= '9' || colorChar >= 'a' && colorChar <= 'f' || colorChar >= 'A' && colorChar <= 'F';
-    }
-
-    private static int sizeStringToWidth(FontRenderer font, String str, int wrapWidth)
-    {
-        int i = str.length();
-        int j = 0;
-        int k = 0;
-        int l = -1;
-
-        for (boolean flag = false; k < i; ++k)
-        {
-            char c0 = str.charAt(k);
-
-            switch (c0)
-            {
-                case '\n':
-                    --k;
-                    break;
-                case ' ':
-                    l = k;
-                default:
-                    j += font.getCharWidth(c0);
-
-                    if (flag)
-                    {
-                        ++j;
-                    }
-
-                    break;
-                case '\u00a7':
-
-                    if (k < i - 1)
-                    {
-                        ++k;
-                        char c1 = str.charAt(k);
-
-                        if (c1 != 'l' && c1 != 'L')
-                        {
-                            if (c1 == 'r' || c1 == 'R' || isFormatColor(c1))
-                            {
-                                flag = false;
-                            }
-                        }
-                        else
-                        {
-                            flag = true;
-                        }
-                    }
-            }
-
-            if (c0 == '\n')
-            {
-                ++k;
-                l = k;
-                break;
-            }
-
-            if (j > wrapWidth)
-            {
-                break;
-            }
-        }
-
-        return k != i && l != -1 && l < k ? l : k;
-    }
-
-    private static void wrapFormattedStringToWidth(FontRenderer font, Consumer<String> dest, String str, int wrapWidth, int wrapWidthFirstLine, boolean firstLine)
-    {
-        int i = sizeStringToWidth(font, str, firstLine ? wrapWidthFirstLine : wrapWidth);
-
-        if (str.length() <= i)
-        {
-            dest.accept(str);
-        }
-        else
-        {
-            String s = str.substring(0, i);
-            dest.accept(s);
-            dest.accept("\n"); // line break
-            char c0 = str.charAt(i);
-            boolean flag = c0 == ' ' || c0 == '\n';
-            String s1 = FontRenderer.getFormatFromString(s) + str.substring(i + (flag ? 1 : 0));
-            wrapFormattedStringToWidth(font, dest, s1, wrapWidth, wrapWidthFirstLine, false);
-        }
+        TextMeasurer measurer = TextMeasurer.get(gui.getFontRenderer());
+        int width = measurer.getStringWidth(text);
+        return new Size(width, measurer.getFontHeight());
     }
 
     @Override
     public List<VisualElement> measure(String text, int width, int firstLineWidth, float scale, int position, float baseline, int verticalAlignment)
     {
-        FontRenderer font = gui.getFontRenderer();
-        List<VisualElement> sizes = Lists.newArrayList();
-        wrapFormattedStringToWidth(font, (s) -> {
-            int width2 = font.getStringWidth(s);
-            sizes.add(new VisualText(s, new Size((int) (width2 * scale), (int) (font.FONT_HEIGHT * scale)), position, baseline, verticalAlignment, scale));
-        }, text, width, firstLineWidth, true);
+        TextMeasurer measurer = TextMeasurer.get(gui.getFontRenderer());
+        TextMeasurer.WrappedText wrapped = measurer.wrap(text, width, firstLineWidth);
+        List<VisualElement> sizes = Lists.newArrayListWithCapacity(wrapped.lines.length);
+        for (int i = 0; i < wrapped.lines.length; i++)
+        {
+            sizes.add(new VisualText(wrapped.lines[i], new Size((int) (wrapped.widths[i] * scale), (int) (measurer.getFontHeight() * scale)), position, baseline, verticalAlignment, scale));
+        }
         return sizes;
     }
 
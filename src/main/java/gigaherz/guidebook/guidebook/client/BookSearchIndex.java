@@ -0,0 +1,513 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.SectionRef;
+import gigaherz.guidebook.guidebook.elements.ElementLink;
+import gigaherz.guidebook.guidebook.elements.ElementSpan;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.resources.I18n;
+import net.minecraft.client.resources.IResourceManager;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.text.TextFormatting;
+import net.minecraftforge.client.resource.IResourceType;
+import net.minecraftforge.client.resource.VanillaResourceType;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Full-text index over the text of every loaded book: spans and their translations, link labels, and chapter and
+ * section ids. Each book is indexed one chapter at a time on a background thread after it's published, and can be
+ * searched while that's still going on, finding only what's been indexed so far.
+ * Lazy chapters that haven't been built yet only have their ids indexed, their text is added once they're built.
+ * Translations are looked up on the main thread, and books indexed in another language start over when it changes.
+ */
+public class BookSearchIndex
+{
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Guidebook Search").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+
+    private static final int TEXT_WEIGHT = 1;
+    private static final int LINK_WEIGHT = 2;
+    private static final int ID_WEIGHT = 4;
+
+    private static final int EXACT_SCORE = 3;
+    private static final int PREFIX_SCORE = 2;
+    private static final int FUZZY_SCORE = 1;
+
+    // Shorter words would match too much of anything with a single typo
+    private static final int MIN_FUZZY_LENGTH = 4;
+
+    private static volatile Map<BookDocument, BookIndex> indices = Collections.emptyMap();
+
+    /**
+     * Starts indexing the books that weren't in the previous set, and drops the indices of the ones that are gone.
+     */
+    static synchronized void rebuild(Map<ResourceLocation, BookDocument> books)
+    {
+        Map<BookDocument, BookIndex> previous = indices;
+        Map<BookDocument, BookIndex> next = Maps.newIdentityHashMap();
+        for (BookDocument book : books.values())
+        {
+            BookIndex index = previous.get(book);
+            if (index == null)
+                index = new BookIndex(book);
+            next.put(book, index);
+        }
+        indices = next;
+
+        for (BookIndex index : next.values())
+        {
+            index.scheduleMissing();
+        }
+    }
+
+    /**
+     * Registered as a resource reload listener, called on the main thread.
+     */
+    public static void onResourcesReloaded(IResourceManager manager, Predicate<IResourceType> types)
+    {
+        if (types.test(VanillaResourceType.LANGUAGE))
+            reindexTranslated(getLanguage());
+    }
+
+    /**
+     * Starts over the books that had text translated to a language other than the given one.
+     */
+    private static synchronized void reindexTranslated(String language)
+    {
+        Map<BookDocument, BookIndex> next = Maps.newIdentityHashMap();
+        boolean changed = false;
+        for (Map.Entry<BookDocument, BookIndex> entry : indices.entrySet())
+        {
+            BookIndex index = entry.getValue();
+            if (index.language != null && !index.language.equals(language))
+            {
+                index = new BookIndex(entry.getKey());
+                changed = true;
+            }
+            next.put(entry.getKey(), index);
+        }
+
+        if (!changed)
+            return;
+
+        indices = next;
+        for (BookIndex index : next.values())
+        {
+            index.scheduleMissing();
+        }
+    }
+
+    private static String getLanguage()
+    {
+        return Minecraft.getMinecraft().getLanguageManager().getCurrentLanguage().getLanguageCode();
+    }
+
+    /**
+     * Searches every loaded book.
+     *
+     * @return up to maxHits sections containing every word of the query, best first
+     */
+    public static List<Hit> search(String query, int maxHits)
+    {
+        String[] words = tokenize(query);
+        List<Hit> hits = Lists.newArrayList();
+        for (BookIndex index : indices.values())
+        {
+            hits.addAll(index.search(words, maxHits));
+        }
+        hits.sort(null);
+        return hits.size() > maxHits ? hits.subList(0, maxHits) : hits;
+    }
+
+    /**
+     * Searches a single book.
+     *
+     * @return up to maxHits sections of the book containing every word of the query, best first
+     */
+    public static List<Hit> search(BookDocument book, String query, int maxHits)
+    {
+        BookIndex index = indices.get(book);
+        if (index == null)
+            return Collections.emptyList();
+        return index.search(tokenize(query), maxHits);
+    }
+
+    private static String[] tokenize(@Nullable String text)
+    {
+        text = TextFormatting.getTextWithoutFormattingCodes(text);
+        if (text == null || text.isEmpty())
+            return new String[0];
+
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++)
+        {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0)
+            {
+                start = i;
+            }
+            else if (!wordChar && start >= 0)
+            {
+                if (i - start > 1)
+                    words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    private static int pack(SectionRef section)
+    {
+        return (section.chapter << 16) | section.page;
+    }
+
+    /**
+     * @return whether the strings differ by at most one inserted, removed or replaced character
+     */
+    private static boolean withinOneEdit(String a, String b)
+    {
+        if (a.length() < b.length())
+        {
+            String t = a;
+            a = b;
+            b = t;
+        }
+        if (a.length() - b.length() > 1)
+            return false;
+
+        int i = 0;
+        while (i < b.length() && a.charAt(i) == b.charAt(i))
+            i++;
+        if (i == b.length())
+            return true;
+
+        // Skip the differing character in the longer one, or in both if they're the same length
+        int j = a.length() == b.length() ? i + 1 : i;
+        return a.regionMatches(i + 1, b, j, b.length() - j);
+    }
+
+    public static class Hit implements Comparable<Hit>
+    {
+        public final ResourceLocation book;
+        public final SectionRef target;
+        public final int score;
+
+        private Hit(ResourceLocation book, SectionRef target, int score)
+        {
+            this.book = book;
+            this.target = target;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit other)
+        {
+            if (score != other.score)
+                return Integer.compare(other.score, score);
+            if (target.chapter != other.target.chapter)
+                return Integer.compare(target.chapter, other.target.chapter);
+            return Integer.compare(target.page, other.target.page);
+        }
+    }
+
+    private static class BookIndex
+    {
+        private final BookDocument book;
+
+        @Nullable
+        private volatile TermIndex ids;
+        private final AtomicReferenceArray<TermIndex> chapters;
+        private final BitSet queued = new BitSet();
+        private boolean idsQueued;
+
+        // The language translated text was looked up in, main thread only
+        @Nullable
+        private String language;
+
+        BookIndex(BookDocument book)
+        {
+            this.book = book;
+            this.chapters = new AtomicReferenceArray<>(book.chapterCount());
+        }
+
+        /**
+         * Queues the ids if they haven't been yet, and every chapter that's built but not indexed.
+         * Cheap enough to call on every search, which is how lazy chapters built since get picked up.
+         */
+        synchronized void scheduleMissing()
+        {
+            if (!idsQueued)
+            {
+                idsQueued = true;
+                EXECUTOR.execute(this::indexIds);
+            }
+
+            for (int i = 0; i < chapters.length(); i++)
+            {
+                if (chapters.get(i) == null && !queued.get(i) && book.isChapterLoaded(i))
+                {
+                    queued.set(i);
+                    int chapterIndex = i;
+                    EXECUTOR.execute(() -> indexChapter(chapterIndex));
+                }
+            }
+        }
+
+        private boolean isCurrent()
+        {
+            return indices.get(book) == this;
+        }
+
+        private void indexIds()
+        {
+            if (!isCurrent())
+                return;
+
+            TermIndex.Builder builder = new TermIndex.Builder();
+            book.visitIds((section, id) -> builder.add(pack(section), id, ID_WEIGHT));
+            ids = builder.build();
+        }
+
+        private void indexChapter(int chapterIndex)
+        {
+            if (!isCurrent())
+                return;
+
+            try
+            {
+                TermIndex.Builder builder = new TermIndex.Builder();
+                List<PendingTranslation> translations = Lists.newArrayList();
+                book.visitChapterElements(chapterIndex, (section, element) -> {
+                    if (element instanceof ElementSpan)
+                    {
+                        ElementSpan span = (ElementSpan) element;
+                        int weight = element instanceof ElementLink ? LINK_WEIGHT : TEXT_WEIGHT;
+                        if (span.translationKey != null)
+                            translations.add(new PendingTranslation(pack(section), span.translationKey, weight));
+                        else
+                            builder.add(pack(section), span.text, weight);
+                    }
+                });
+
+                if (translations.isEmpty())
+                    chapters.set(chapterIndex, builder.build());
+                else
+                    Minecraft.getMinecraft().addScheduledTask(() -> translate(chapterIndex, builder, translations));
+            }
+            catch (RuntimeException e)
+            {
+                GuidebookMod.logger.warn("Could not index chapter {} of {} for searching", chapterIndex, book.getBookLocation(), e);
+            }
+        }
+
+        /**
+         * Main thread, the translations are reloaded along with the resources. The chapter goes back to the search
+         * thread to be finished.
+         */
+        private void translate(int chapterIndex, TermIndex.Builder builder, List<PendingTranslation> translations)
+        {
+            if (!isCurrent())
+                return;
+
+            if (language == null)
+                language = getLanguage();
+
+            String[] texts = new String[translations.size()];
+            for (int i = 0; i < texts.length; i++)
+            {
+                texts[i] = I18n.format(translations.get(i).key);
+            }
+
+            EXECUTOR.execute(() -> {
+                if (!isCurrent())
+                    return;
+
+                for (int i = 0; i < texts.length; i++)
+                {
+                    PendingTranslation translation = translations.get(i);
+                    builder.add(translation.section, texts[i], translation.weight);
+                }
+                chapters.set(chapterIndex, builder.build());
+            });
+        }
+
+        List<Hit> search(String[] words, int maxHits)
+        {
+            scheduleMissing();
+
+            if (words.length == 0)
+                return Collections.emptyList();
+
+            // Sections have to match every word; the scores of the words add up
+            Int2IntOpenHashMap total = null;
+            for (String word : words)
+            {
+                Int2IntOpenHashMap scores = new Int2IntOpenHashMap();
+                TermIndex idIndex = ids;
+                if (idIndex != null)
+                    idIndex.match(word, scores);
+                for (int i = 0; i < chapters.length(); i++)
+                {
+                    TermIndex chapter = chapters.get(i);
+                    if (chapter != null)
+                        chapter.match(word, scores);
+                }
+
+                if (total == null)
+                {
+                    total = scores;
+                }
+                else
+                {
+                    Int2IntOpenHashMap previous = total;
+                    total = new Int2IntOpenHashMap();
+                    for (Int2IntMap.Entry entry : scores.int2IntEntrySet())
+                    {
+                        int score = previous.get(entry.getIntKey());
+                        if (score > 0)
+                            total.put(entry.getIntKey(), score + entry.getIntValue());
+                    }
+                }
+
+                if (total.isEmpty())
+                    return Collections.emptyList();
+            }
+
+            List<Hit> hits = Lists.newArrayList();
+            for (Int2IntMap.Entry entry : total.int2IntEntrySet())
+            {
+                int chapter = entry.getIntKey() >>> 16;
+                int section = entry.getIntKey() & 0xFFFF;
+                if (book.isSectionVisible(chapter, section))
+                    hits.add(new Hit(book.getBookLocation(), new SectionRef(chapter, section), entry.getIntValue()));
+            }
+            hits.sort(null);
+            return hits.size() > maxHits ? hits.subList(0, maxHits) : hits;
+        }
+    }
+
+    private static class PendingTranslation
+    {
+        final int section;
+        final String key;
+        final int weight;
+
+        PendingTranslation(int section, String key, int weight)
+        {
+            this.section = section;
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Sorted terms, each with the sections it appears in and how much weight it has in each of them.
+     * Sorting puts the terms sharing a prefix next to each other, so prefixes are found with a binary search.
+     */
+    private static class TermIndex
+    {
+        private final String[] terms;
+        private final int[][] sections;
+        private final int[][] weights;
+
+        private TermIndex(String[] terms, int[][] sections, int[][] weights)
+        {
+            this.terms = terms;
+            this.sections = sections;
+            this.weights = weights;
+        }
+
+        /**
+         * Adds the best score of any term matching the word to each section it's in, if better than what's there.
+         */
+        void match(String word, Int2IntOpenHashMap scores)
+        {
+            int start = Arrays.binarySearch(terms, word);
+            if (start < 0)
+                start = -start - 1;
+            int end = start;
+            while (end < terms.length && terms[end].startsWith(word))
+            {
+                addScores(end, terms[end].length() == word.length() ? EXACT_SCORE : PREFIX_SCORE, scores);
+                end++;
+            }
+
+            if (word.length() < MIN_FUZZY_LENGTH)
+                return;
+
+            // Typos past the first letter only, so the candidates are a single range of the sorted terms
+            char first = word.charAt(0);
+            int from = Arrays.binarySearch(terms, String.valueOf(first));
+            if (from < 0)
+                from = -from - 1;
+            for (int i = from; i < terms.length && terms[i].charAt(0) == first; i++)
+            {
+                if (i >= start && i < end)
+                    continue;
+                if (Math.abs(terms[i].length() - word.length()) <= 1 && withinOneEdit(terms[i], word))
+                    addScores(i, FUZZY_SCORE, scores);
+            }
+        }
+
+        private void addScores(int term, int score, Int2IntOpenHashMap scores)
+        {
+            int[] termSections = sections[term];
+            int[] termWeights = weights[term];
+            for (int i = 0; i < termSections.length; i++)
+            {
+                int value = score * termWeights[i];
+                if (value > scores.get(termSections[i]))
+                    scores.put(termSections[i], value);
+            }
+        }
+
+        private static class Builder
+        {
+            private final Map<String, Int2IntOpenHashMap> postings = Maps.newHashMap();
+
+            void add(int section, @Nullable String text, int weight)
+            {
+                for (String word : tokenize(text))
+                {
+                    postings.computeIfAbsent(word, k -> new Int2IntOpenHashMap()).addTo(section, weight);
+                }
+            }
+
+            TermIndex build()
+            {
+                String[] terms = postings.keySet().toArray(new String[postings.size()]);
+                Arrays.sort(terms);
+
+                int[][] sections = new int[terms.length][];
+                int[][] weights = new int[terms.length][];
+                for (int i = 0; i < terms.length; i++)
+                {
+                    Int2IntOpenHashMap termPostings = postings.get(terms[i]);
+                    sections[i] = new int[termPostings.size()];
+                    weights[i] = new int[termPostings.size()];
+                    int j = 0;
+                    for (Int2IntMap.Entry entry : termPostings.int2IntEntrySet())
+                    {
+                        sections[i][j] = entry.getIntKey();
+                        weights[i][j] = entry.getIntValue();
+                        j++;
+                    }
+                }
+                return new TermIndex(terms, sections, weights);
+            }
+        }
+    }
+}
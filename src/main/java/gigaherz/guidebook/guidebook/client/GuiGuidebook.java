@@ -3,15 +3,18 @@ package gigaherz.guidebook.guidebook.client;
 import gigaherz.guidebook.GuidebookMod;
 import gigaherz.guidebook.guidebook.BookDocument;
 import gigaherz.guidebook.guidebook.IBookGraphics;
+import gigaherz.guidebook.guidebook.SectionRef;
 import gigaherz.guidebook.guidebook.conditions.ConditionContext;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.EntityPlayerSP;
 import net.minecraft.client.gui.FontRenderer;
 import net.minecraft.client.gui.GuiButton;
 import net.minecraft.client.gui.GuiScreen;
+import net.minecraft.client.gui.GuiTextField;
 import net.minecraft.client.renderer.GlStateManager;
 import net.minecraft.client.renderer.ItemModelMesher;
 import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.client.resources.I18n;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.ResourceLocation;
@@ -19,7 +22,10 @@ import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 import org.lwjgl.input.Keyboard;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 public class GuiGuidebook extends GuiScreen
 {
@@ -38,15 +44,34 @@ public class GuiGuidebook extends GuiScreen
     private ItemModelMesher mesher = Minecraft.getMinecraft().getRenderItem().getItemModelMesher();
     private TextureManager renderEngine = Minecraft.getMinecraft().renderEngine;
 
+    private static final int MAX_SEARCH_HITS = 50;
+    private static final int SEARCH_WIDTH = 120;
+
     private IBookGraphics book;
     private AnimatedBookBackground background;
+
+    private GuiTextField searchField;
+    private List<BookSearchIndex.Hit> searchHits = Collections.emptyList();
+    private int searchHitIndex = -1;
     public static boolean useNaturalArrows = false;
 
+    @Nullable
+    private SectionRef pendingTarget;
+
     public GuiGuidebook(ResourceLocation book)
     {
         bookLocation = book;
     }
 
+    /**
+     * Opens the book on the given section instead of wherever it was left.
+     */
+    public GuiGuidebook(ResourceLocation book, SectionRef target)
+    {
+        bookLocation = book;
+        pendingTarget = target;
+    }
+
     @Override
     public boolean doesGuiPauseGame()
     {
@@ -65,18 +90,20 @@ public class GuiGuidebook extends GuiScreen
 
             background = new AnimatedBookBackground(this);
 
-            EntityPlayerSP player = Minecraft.getMinecraft().player;
-            ConditionContext conditionContext = new ConditionContext();
-            conditionContext.setPlayer(player);
-
             BookDocument theBook = BookRegistry.get(bookLocation);
             book = theBook.getRendering();
-            boolean conditions = theBook.reevaluateConditions(conditionContext);
-            if (book == null || conditions)
+            boolean conditions = theBook.reevaluateConditions(createConditionContext());
+            if (book == null)
             {
                 book = new BookRendering(theBook, this);
                 theBook.setRendering(book);
             }
+            else if (conditions)
+            {
+                ((BookRendering) book).refreshChangedChapters();
+            }
+
+            LayoutPrefetcher.resolveRecipes(theBook);
 
             int btnId = 0;
 
@@ -102,8 +129,13 @@ public class GuiGuidebook extends GuiScreen
                 this.buttonNextChapter = new SpriteButton(btnId++, right - 23, bottom - 13, 5);
             }
             GuidebookMod.logger.info("Showing gui with " + btnId + " buttons.");
+
+            searchField = new GuiTextField(btnId++, fontRenderer, 0, 0, SEARCH_WIDTH, 12);
+            searchField.setMaxStringLength(64);
         }
 
+        Keyboard.enableRepeatEvents(true);
+
         this.buttonList.add(this.buttonHome);
         this.buttonList.add(this.buttonBack);
         this.buttonList.add(this.buttonClose);
@@ -117,6 +149,53 @@ public class GuiGuidebook extends GuiScreen
         repositionButtons();
 
         setupConditionsAndPosition();
+
+        // Only once the scale is set, the chapter has to be laid out to find the page
+        if (pendingTarget != null)
+        {
+            book.navigateTo(pendingTarget);
+            pendingTarget = null;
+            updateButtonStates();
+        }
+    }
+
+    private static ConditionContext createConditionContext()
+    {
+        EntityPlayerSP player = Minecraft.getMinecraft().player;
+        ConditionContext conditionContext = new ConditionContext();
+        conditionContext.setPlayer(player);
+        return conditionContext;
+    }
+
+    /**
+     * Switches to a new version of the book after it was reloaded, staying on the same chapter and page if they still exist.
+     */
+    public void onBookReloaded()
+    {
+        BookDocument theBook = BookRegistry.get(bookLocation);
+        if (theBook == null || theBook.chapterCount() == 0)
+        {
+            mc.displayGuiScreen(null);
+            return;
+        }
+
+        BookRendering previous = (BookRendering) book;
+        previous.releaseRenderCache();
+
+        theBook.reevaluateConditions(createConditionContext());
+        BookRendering rendering = new BookRendering(theBook, this);
+        theBook.setRendering(rendering);
+        book = rendering;
+
+        LayoutPrefetcher.resolveRecipes(theBook);
+
+        // Layout depends on the scale, so it has to be set before the chapter is reflowed
+        rendering.setScalingFactor();
+        rendering.restorePosition(previous.getCurrentChapter(), previous.getCurrentPair());
+
+        repositionButtons();
+        updateButtonStates();
+        updateSearch();
     }
 
     private void setupConditionsAndPosition()
@@ -188,11 +267,38 @@ public class GuiGuidebook extends GuiScreen
             mc.displayGuiScreen(null);
 
         updateButtonStates();
+
+        if (background.isFullyOpen())
+            ((BookRendering) book).prefetchUpcomingChapters();
+    }
+
+    @Override
+    public void onGuiClosed()
+    {
+        Keyboard.enableRepeatEvents(false);
+        ((BookRendering) book).releaseRenderCache();
     }
 
     @Override
     protected void keyTyped(char typedChar, int keyCode) throws IOException
     {
+        if (searchField.isFocused())
+        {
+            if (keyCode == Keyboard.KEY_ESCAPE)
+            {
+                searchField.setFocused(false);
+            }
+            else if (keyCode == Keyboard.KEY_RETURN || keyCode == Keyboard.KEY_NUMPADENTER)
+            {
+                showNextSearchHit();
+            }
+            else if (searchField.textboxKeyTyped(typedChar, keyCode))
+            {
+                updateSearch();
+            }
+            return;
+        }
+
         if (keyCode == Keyboard.KEY_ESCAPE)
         {
             background.startClosing();
@@ -232,6 +338,31 @@ public class GuiGuidebook extends GuiScreen
         buttonPreviousChapter.y = bottom - 13;
         buttonNextChapter.x = right - 23;
         buttonNextChapter.y = bottom - 13;
+        searchField.x = (this.width - SEARCH_WIDTH) / 2;
+        searchField.y = Math.min(bottom + 4, this.height - 14);
+    }
+
+    /**
+     * Runs the query in the search box again, on every change to it. Fast enough to do while typing.
+     */
+    private void updateSearch()
+    {
+        String query = searchField.getText();
+        searchHits = query.isEmpty() ? Collections.emptyList() : BookSearchIndex.search(book.getBook(), query, MAX_SEARCH_HITS);
+        searchHitIndex = -1;
+    }
+
+    /**
+     * Goes to the next section matching the search, starting over after the last one.
+     */
+    private void showNextSearchHit()
+    {
+        if (searchHits.isEmpty())
+            return;
+
+        searchHitIndex = (searchHitIndex + 1) % searchHits.size();
+        book.navigateTo(searchHits.get(searchHitIndex).target);
+        updateButtonStates();
     }
 
     @Override
@@ -251,10 +382,32 @@ public class GuiGuidebook extends GuiScreen
 
         if (background.isFullyOpen())
         {
+            drawSearch();
+
             book.mouseHover(mouseX, mouseY);
         }
     }
 
+    private void drawSearch()
+    {
+        searchField.drawTextBox();
+
+        int x = searchField.x + 4;
+        int y = searchField.y + 2;
+        if (searchField.getText().isEmpty())
+        {
+            if (!searchField.isFocused())
+                fontRenderer.drawString(I18n.format("text.gbook.search.hint"), x, y, 0x808080);
+        }
+        else
+        {
+            String status = searchHits.isEmpty()
+                    ? I18n.format("text.gbook.search.none")
+                    : I18n.format("text.gbook.search.results", searchHitIndex + 1, searchHits.size());
+            fontRenderer.drawStringWithShadow(status, searchField.x + SEARCH_WIDTH + 4, y, 0xFFFFFF);
+        }
+    }
+
     public void drawTooltip(ItemStack stack, int x, int y)
     {
         renderToolTip(stack, x, y);
@@ -263,6 +416,9 @@ public class GuiGuidebook extends GuiScreen
     @Override
     protected void mouseClicked(int mouseX, int mouseY, int mouseButton) throws IOException
     {
+        if (background.isFullyOpen() && searchField.mouseClicked(mouseX, mouseY, mouseButton))
+            return;
+
         if (book.mouseClicked(mouseButton))
             return;
 
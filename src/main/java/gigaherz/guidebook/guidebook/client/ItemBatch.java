@@ -0,0 +1,115 @@
+package gigaherz.guidebook.guidebook.client;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.FontRenderer;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.RenderHelper;
+import net.minecraft.client.renderer.RenderItem;
+import net.minecraft.item.ItemStack;
+
+import java.util.Arrays;
+
+/**
+ * Item stacks queued while a page is drawn and then drawn together: the GUI item lighting and depth state are set up
+ * once for all of them, and their overlays are drawn in a second pass.
+ * Stacks are drawn in order of their z, and otherwise keep the order they were queued in. The batch is flushed before
+ * anything else is drawn, so they stay layered the same way against the rest of the page.
+ */
+class ItemBatch
+{
+    private Entry[] entries = new Entry[16];
+    private int size;
+
+    void add(int left, int top, int z, ItemStack stack, float scale)
+    {
+        if (size == entries.length)
+            entries = Arrays.copyOf(entries, size * 2);
+
+        Entry entry = entries[size];
+        if (entry == null)
+            entries[size] = entry = new Entry();
+        entry.set(left, top, z, stack, scale, size);
+        size++;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    void flush(FontRenderer fontRenderer)
+    {
+        if (size == 0)
+            return;
+
+        Arrays.sort(entries, 0, size);
+
+        RenderItem renderItem = Minecraft.getMinecraft().getRenderItem();
+
+        GlStateManager.enableDepth();
+        GlStateManager.enableAlpha();
+
+        RenderHelper.enableGUIStandardItemLighting();
+        for (int i = 0; i < size; i++)
+        {
+            Entry entry = entries[i];
+            GlStateManager.pushMatrix();
+            entry.transform();
+            renderItem.renderItemAndEffectIntoGUI(entry.stack, 0, 0);
+            GlStateManager.popMatrix();
+        }
+        RenderHelper.disableStandardItemLighting();
+
+        for (int i = 0; i < size; i++)
+        {
+            Entry entry = entries[i];
+            GlStateManager.pushMatrix();
+            entry.transform();
+            renderItem.renderItemOverlayIntoGUI(fontRenderer, entry.stack, 0, 0, null);
+            GlStateManager.popMatrix();
+        }
+
+        GlStateManager.disableLighting();
+        GlStateManager.disableDepth();
+
+        for (int i = 0; i < size; i++)
+        {
+            entries[i].stack = ItemStack.EMPTY;
+        }
+        size = 0;
+    }
+
+    private static class Entry implements Comparable<Entry>
+    {
+        int left;
+        int top;
+        int z;
+        ItemStack stack;
+        float scale;
+        int order;
+
+        void set(int left, int top, int z, ItemStack stack, float scale, int order)
+        {
+            this.left = left;
+            this.top = top;
+            this.z = z;
+            this.stack = stack;
+            this.scale = scale;
+            this.order = order;
+        }
+
+        void transform()
+        {
+            GlStateManager.translate(left, top, z);
+            GlStateManager.scale(scale, scale, scale);
+        }
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            if (z != other.z)
+                return Integer.compare(z, other.z);
+            return Integer.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.BookDocument;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiRepair;
+import net.minecraft.client.gui.GuiScreen;
+import net.minecraft.client.gui.GuiTextField;
+import net.minecraft.client.gui.inventory.GuiContainer;
+import net.minecraft.client.gui.inventory.GuiContainerCreative;
+import net.minecraft.client.resources.I18n;
+import net.minecraft.client.settings.KeyBinding;
+import net.minecraft.creativetab.CreativeTabs;
+import net.minecraft.inventory.Slot;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.text.TextFormatting;
+import net.minecraftforge.client.event.GuiScreenEvent;
+import net.minecraftforge.client.settings.KeyConflictContext;
+import net.minecraftforge.event.entity.player.ItemTooltipEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import org.lwjgl.input.Keyboard;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens the page documenting the item under the mouse in an inventory when the lookup key is pressed, and hints at
+ * it in the item's tooltip.
+ */
+@Mod.EventBusSubscriber(value = Side.CLIENT, modid = GuidebookMod.MODID)
+public class ItemLookup
+{
+    public static final KeyBinding KEY_LOOKUP = new KeyBinding("key.gbook.lookup", KeyConflictContext.GUI, Keyboard.KEY_G, "key.categories.gbook");
+
+    // Main thread only
+    private static final Map<Class<?>, List<Field>> TEXT_FIELDS = Maps.newHashMap();
+
+    @SubscribeEvent
+    public static void keyPressed(GuiScreenEvent.KeyboardInputEvent.Pre event)
+    {
+        if (!Keyboard.getEventKeyState() || !KEY_LOOKUP.isActiveAndMatches(Keyboard.getEventKey()))
+            return;
+
+        ItemStack stack = getHoveredStack(event.getGui());
+        if (stack.isEmpty())
+            return;
+
+        List<ItemPageIndex.Entry> entries = ItemPageIndex.find(stack);
+        if (entries.isEmpty())
+            return;
+
+        ItemPageIndex.Entry entry = entries.get(0);
+        BookDocument book = BookRegistry.get(entry.book);
+        if (book == null || book.chapterCount() == 0)
+            return;
+
+        Minecraft.getMinecraft().displayGuiScreen(new GuiGuidebook(entry.book, entry.target));
+        event.setCanceled(true);
+    }
+
+    @SubscribeEvent
+    public static void itemTooltip(ItemTooltipEvent event)
+    {
+        if (KEY_LOOKUP.getKeyCode() == Keyboard.KEY_NONE)
+            return;
+
+        // Only for the slot the key would act on, not for every tooltip that happens to show this stack
+        ItemStack stack = event.getItemStack();
+        if (stack.isEmpty() || stack != getHoveredStack(Minecraft.getMinecraft().currentScreen))
+            return;
+
+        List<ItemPageIndex.Entry> entries = ItemPageIndex.find(stack);
+        if (entries.isEmpty())
+            return;
+
+        BookDocument book = BookRegistry.get(entries.get(0).book);
+        if (book == null)
+            return;
+
+        String bookName = book.getBookName();
+        event.getToolTip().add(TextFormatting.GRAY + I18n.format("text.gbook.lookup", KEY_LOOKUP.getDisplayName(),
+                bookName != null ? bookName : entries.get(0).book.toString()));
+    }
+
+    private static ItemStack getHoveredStack(@Nullable GuiScreen gui)
+    {
+        if (!(gui instanceof GuiContainer))
+            return ItemStack.EMPTY;
+
+        // The key would be typed into the search box, or the anvil's name box, or any other text field instead
+        if (gui instanceof GuiContainerCreative && ((GuiContainerCreative) gui).getSelectedTabIndex() == CreativeTabs.SEARCH.getIndex())
+            return ItemStack.EMPTY;
+        if (gui instanceof GuiRepair || hasFocusedTextField(gui))
+            return ItemStack.EMPTY;
+
+        Slot slot = ((GuiContainer) gui).getSlotUnderMouse();
+        return slot != null ? slot.getStack() : ItemStack.EMPTY;
+    }
+
+    private static boolean hasFocusedTextField(GuiScreen gui)
+    {
+        for (Field field : TEXT_FIELDS.computeIfAbsent(gui.getClass(), ItemLookup::findTextFields))
+        {
+            try
+            {
+                GuiTextField textField = (GuiTextField) field.get(gui);
+                if (textField != null && textField.getVisible() && textField.isFocused())
+                    return true;
+            }
+            catch (IllegalAccessException e)
+            {
+                // Ignore
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the text field members of the screen class and its superclasses; screens don't have a way to list them
+     */
+    private static List<Field> findTextFields(Class<?> screenClass)
+    {
+        List<Field> fields = Lists.newArrayList();
+        for (Class<?> c = screenClass; c != null && c != GuiScreen.class; c = c.getSuperclass())
+        {
+            for (Field field : c.getDeclaredFields())
+            {
+                if (!Modifier.isStatic(field.getModifiers()) && GuiTextField.class.isAssignableFrom(field.getType()))
+                {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,185 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.SectionRef;
+import gigaherz.guidebook.guidebook.StackLinkIndex;
+import gigaherz.guidebook.guidebook.elements.ElementRecipe;
+import gigaherz.guidebook.guidebook.elements.ElementStack;
+import gigaherz.guidebook.guidebook.recipe.RecipeProvider;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.oredict.OreDictionary;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Every section of every loaded book that documents an item: the book's stack links first, then the sections showing
+ * the item in a stack or as a recipe output, in book order. Rebuilt from scratch whenever books are published.
+ * Lookups are two map gets into lists prepared at build time, since they run for every tooltip frame.
+ */
+public class ItemPageIndex
+{
+    private static volatile ItemPageIndex current = new ItemPageIndex(Collections.emptyMap());
+
+    private final Map<Item, ItemEntries> entries;
+
+    private ItemPageIndex(Map<Item, ItemEntries> entries)
+    {
+        this.entries = entries;
+    }
+
+    /**
+     * @return the sections documenting the stack, for its damage value and then for any damage value; empty if none
+     */
+    public static List<Entry> find(ItemStack stack)
+    {
+        ItemEntries itemEntries = current.entries.get(stack.getItem());
+        if (itemEntries == null)
+            return Collections.emptyList();
+
+        if (itemEntries.byDamage != null)
+        {
+            List<Entry> list = itemEntries.byDamage.get(stack.getItemDamage());
+            if (list != null)
+                return list;
+        }
+        return itemEntries.wildcard;
+    }
+
+    static void rebuild(Map<ResourceLocation, BookDocument> books)
+    {
+        Builder builder = new Builder();
+        for (Map.Entry<ResourceLocation, BookDocument> book : books.entrySet())
+        {
+            builder.addBook(book.getKey(), book.getValue());
+        }
+        current = builder.build();
+    }
+
+    public static class Entry
+    {
+        public final ResourceLocation book;
+        public final SectionRef target;
+
+        private Entry(ResourceLocation book, SectionRef target)
+        {
+            this.book = book;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Entry))
+                return false;
+            Entry other = (Entry) obj;
+            return book.equals(other.book) && target.chapter == other.target.chapter && target.page == other.target.page;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(book, target.chapter, target.page);
+        }
+    }
+
+    private static class ItemEntries
+    {
+        Int2ObjectMap<List<Entry>> byDamage;
+        List<Entry> wildcard = Collections.emptyList();
+    }
+
+    private static class Builder
+    {
+        private final Map<Item, Int2ObjectMap<List<Entry>>> byDamage = Maps.newIdentityHashMap();
+        private final Map<Item, List<Entry>> wildcard = Maps.newIdentityHashMap();
+
+        void addBook(ResourceLocation location, BookDocument book)
+        {
+            if (book.hasLoadError())
+                return;
+
+            book.getStackLinks().forEach((item, damage, ref) -> {
+                // Resolved on a copy, the book's own references may be in use by an open gui
+                SectionRef target = ref.resolvedNames ? ref.copy() : new SectionRef(ref.chapterName, ref.pageName);
+                if (target.resolve(book))
+                    add(item, damage, new Entry(location, target));
+            });
+
+            book.visitLoadedElements((section, element) -> {
+                if (element instanceof ElementStack)
+                {
+                    ItemStack[] stacks = ((ElementStack) element).stacks;
+                    if (stacks != null)
+                    {
+                        for (ItemStack stack : stacks)
+                        {
+                            add(stack, new Entry(location, section));
+                        }
+                    }
+                }
+                else if (element instanceof ElementRecipe)
+                {
+                    RecipeProvider.RecipeRequest request = ((ElementRecipe) element).getRecipeRequest();
+                    if (request != null && request.recipeKey == null)
+                        add(request.targetOutput, new Entry(location, section));
+                }
+            });
+        }
+
+        private void add(ItemStack stack, Entry entry)
+        {
+            if (stack.isEmpty())
+                return;
+            int damage = stack.getItemDamage();
+            add(stack.getItem(), damage == OreDictionary.WILDCARD_VALUE ? StackLinkIndex.WILDCARD : damage, entry);
+        }
+
+        private void add(Item item, int damage, Entry entry)
+        {
+            List<Entry> list = damage == StackLinkIndex.WILDCARD
+                    ? wildcard.computeIfAbsent(item, k -> Lists.newArrayList())
+                    : byDamage.computeIfAbsent(item, k -> new Int2ObjectOpenHashMap<>()).computeIfAbsent(damage, k -> Lists.newArrayList());
+            if (!list.contains(entry))
+                list.add(entry);
+        }
+
+        ItemPageIndex build()
+        {
+            Map<Item, ItemEntries> entries = Maps.newIdentityHashMap();
+            for (Map.Entry<Item, List<Entry>> item : wildcard.entrySet())
+            {
+                entries.computeIfAbsent(item.getKey(), k -> new ItemEntries()).wildcard = ImmutableList.copyOf(item.getValue());
+            }
+
+            for (Map.Entry<Item, Int2ObjectMap<List<Entry>>> item : byDamage.entrySet())
+            {
+                ItemEntries itemEntries = entries.computeIfAbsent(item.getKey(), k -> new ItemEntries());
+                itemEntries.byDamage = new Int2ObjectOpenHashMap<>();
+
+                // Each damage value also gets the entries for any damage value, so a lookup never has to merge lists
+                for (Int2ObjectMap.Entry<List<Entry>> damage : item.getValue().int2ObjectEntrySet())
+                {
+                    List<Entry> list = Lists.newArrayList(damage.getValue());
+                    for (Entry entry : itemEntries.wildcard)
+                    {
+                        if (!list.contains(entry))
+                            list.add(entry);
+                    }
+                    itemEntries.byDamage.put(damage.getIntKey(), ImmutableList.copyOf(list));
+                }
+            }
+
+            return new ItemPageIndex(entries);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.drawing.Size;
+import gigaherz.guidebook.guidebook.drawing.VisualChapter;
+import net.minecraft.client.Minecraft;
+
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Keeps reflowed chapters around between BookRendering instances, so re-opening a book, resizing back to a previous
+ * size or flipping a condition back doesn't reflow everything again.
+ * The cached chapters are shared, so they must not be modified. Position in the book (startPair) is not part of them.
+ * Also filled from the {@link LayoutPrefetcher} thread, so a chapter is only ever laid out by one thread at a time.
+ */
+public class LayoutCache
+{
+    private static Cache<Key, VisualChapter> cache;
+
+    private static synchronized Cache<Key, VisualChapter> getCache()
+    {
+        if (cache == null)
+        {
+            // Weighed by pages, which is what most of the memory goes to. Soft values, since they can all be rebuilt.
+            cache = CacheBuilder.newBuilder()
+                    .maximumWeight(GuidebookMod.layoutCachePages)
+                    .weigher((Key key, VisualChapter layout) -> layout.pages.size() + 1)
+                    .softValues()
+                    .build();
+        }
+        return cache;
+    }
+
+    public static VisualChapter get(BookDocument.ChapterData chapter, Size pageSize, float fontSize, Supplier<VisualChapter> reflow)
+    {
+        if (!isEnabled())
+            return reflow.get();
+
+        return get(keyFor(chapter, pageSize, fontSize), reflow);
+    }
+
+    /**
+     * Main thread only: the language, the font and the condition results the layout depends on all belong to it.
+     */
+    static Key keyFor(BookDocument.ChapterData chapter, Size pageSize, float fontSize)
+    {
+        Minecraft mc = Minecraft.getMinecraft();
+        return new Key(chapter, pageSize.width, pageSize.height, fontSize,
+                mc.getLanguageManager().getCurrentLanguage().getLanguageCode(), mc.isUnicode(),
+                chapter.getConditionFingerprint());
+    }
+
+    /**
+     * Also used from the {@link LayoutPrefetcher} thread, with a key made on the main thread.
+     */
+    static VisualChapter get(Key key, Supplier<VisualChapter> reflow)
+    {
+        // Held while reflowing, so a layout being prefetched is waited for instead of done twice.
+        // Conditions are only reevaluated under the same lock, so they can't change halfway through a layout.
+        synchronized (key.chapter)
+        {
+            Cache<Key, VisualChapter> cache = getCache();
+            VisualChapter layout = cache.getIfPresent(key);
+            if (layout == null)
+            {
+                layout = reflow.get();
+
+                // If conditions were reevaluated since the key was made, this layout doesn't match it
+                if (key.chapter.getConditionFingerprint().equals(key.conditions))
+                    cache.put(key, layout);
+            }
+            return layout;
+        }
+    }
+
+    public static boolean isEnabled()
+    {
+        return GuidebookMod.layoutCachePages > 0;
+    }
+
+    /**
+     * Drops every layout. Called when books are reloaded, since the old chapters would otherwise stay reachable from here.
+     */
+    public static void clear()
+    {
+        getCache().invalidateAll();
+    }
+
+    static final class Key
+    {
+        // Chapters don't override equals, so each loaded book has its own entries
+        private final BookDocument.ChapterData chapter;
+        private final int pageWidth;
+        private final int pageHeight;
+        private final float fontSize;
+        private final String language;
+        private final boolean unicode;
+        private final BitSet conditions;
+        private final int hash;
+
+        private Key(BookDocument.ChapterData chapter, int pageWidth, int pageHeight, float fontSize, String language, boolean unicode, BitSet conditions)
+        {
+            this.chapter = chapter;
+            this.pageWidth = pageWidth;
+            this.pageHeight = pageHeight;
+            this.fontSize = fontSize;
+            this.language = language;
+            this.unicode = unicode;
+            this.conditions = conditions;
+            this.hash = Objects.hash(System.identityHashCode(chapter), pageWidth, pageHeight, fontSize, language, unicode, conditions);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return chapter == other.chapter
+                    && pageWidth == other.pageWidth
+                    && pageHeight == other.pageHeight
+                    && Float.compare(fontSize, other.fontSize) == 0
+                    && unicode == other.unicode
+                    && language.equals(other.language)
+                    && conditions.equals(other.conditions);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
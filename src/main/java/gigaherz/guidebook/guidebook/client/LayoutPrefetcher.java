@@ -0,0 +1,103 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.drawing.Size;
+import gigaherz.guidebook.guidebook.recipe.RecipeComponentCache;
+import net.minecraft.client.Minecraft;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lays out chapters ahead of the reader on a single low priority thread, into the {@link LayoutCache}, and resolves
+ * the recipes of a book when it's opened.
+ * The UI thread picks the results up from there, and waits on the chapter if it gets there while it's still being laid out.
+ */
+public class LayoutPrefetcher
+{
+    // Only a few pending chapters, dropping the oldest, since the reader may have moved on from them already
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(4),
+            new ThreadFactoryBuilder().setNameFormat("Guidebook Layout").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build(),
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+
+    // Separate from the chapters, so prefetching them can't push the recipes of a book just opened out of the queue
+    private static final ExecutorService RECIPE_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Guidebook Recipes").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+
+    /**
+     * Resolves the recipes of the whole book in the background, in one batch per recipe provider, for the providers
+     * that can be used off the main thread.
+     * Started before any chapters are queued, so it's normally done by the time they get to their recipes.
+     */
+    public static void resolveRecipes(BookDocument book)
+    {
+        RECIPE_EXECUTOR.execute(() -> {
+            try
+            {
+                RecipeComponentCache.resolveAll(book);
+            }
+            catch (RuntimeException e)
+            {
+                GuidebookMod.logger.debug("Could not resolve the recipes of {} ahead of time", book.getBookLocation(), e);
+            }
+        });
+    }
+
+    /**
+     * Main thread only. What the layout depends on that belongs to the main thread, like the language and the condition
+     * results, is captured here and handed over to the layout thread.
+     */
+    public static void schedule(BookDocument book, int chapterIndex, Size pageSize)
+    {
+        if (!book.isChapterLoaded(chapterIndex))
+        {
+            // Lazy chapters are built on the layout thread too, but the conditions of the new elements read the
+            // player's state, so the chapter comes back here to evaluate them before it's laid out
+            EXECUTOR.execute(() -> {
+                try
+                {
+                    book.getChapter(chapterIndex);
+                }
+                catch (RuntimeException e)
+                {
+                    GuidebookMod.logger.debug("Could not build chapter {} of {} ahead of time", chapterIndex, book.getBookLocation(), e);
+                    return;
+                }
+
+                Minecraft.getMinecraft().addScheduledTask(() -> {
+                    if (BookRegistry.get(book.getBookLocation()) == book)
+                        schedule(book, chapterIndex, pageSize);
+                });
+            });
+            return;
+        }
+
+        BookDocument.ChapterData chapter = book.getChapter(chapterIndex);
+        chapter.evaluatePendingConditions();
+        if (!chapter.conditionResult)
+            return;
+
+        // Left for the main thread to lay out when it gets there, along with the recipes it can't look up from here
+        if (!RecipeComponentCache.canResolveOffThread(book, chapterIndex))
+            return;
+
+        LayoutCache.Key key = LayoutCache.keyFor(chapter, pageSize, book.getFontSize());
+        EXECUTOR.execute(() -> {
+            try
+            {
+                LayoutCache.get(key, () -> BookRendering.reflowChapter(chapter, pageSize));
+            }
+            catch (RuntimeException e)
+            {
+                // The UI thread will lay it out again and hit the same problem, where it can be reported properly
+                GuidebookMod.logger.debug("Could not lay out chapter {} of {} ahead of time", chapterIndex, book.getBookLocation(), e);
+            }
+        });
+    }
+}
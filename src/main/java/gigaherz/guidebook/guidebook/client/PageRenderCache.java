@@ -0,0 +1,195 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.collect.Lists;
+import gigaherz.guidebook.guidebook.drawing.VisualElement;
+import gigaherz.guidebook.guidebook.drawing.VisualPage;
+import net.minecraft.client.renderer.GLAllocation;
+import net.minecraft.client.renderer.GlStateManager;
+import org.lwjgl.opengl.GL11;
+
+import java.util.List;
+
+/**
+ * Display lists with the static parts of the two pages on screen, so their text and images are drawn with a single
+ * call per run of static elements, instead of a font render per word every frame.
+ * Elements that can change between frames, like cycling stacks and links that change color on hover, are drawn live
+ * in between the runs, so everything is still drawn in the same order.
+ * A page is recorded again when a different page or page number is shown in its place, and after resources are
+ * reloaded, since the lists refer to texture ids.
+ */
+class PageRenderCache
+{
+    // Bumped on resource reload, from the main thread
+    private static int generation;
+
+    private final CachedPage[] pages = new CachedPage[2];
+
+    static void invalidateAll()
+    {
+        generation++;
+    }
+
+    /**
+     * Draws the page, recording it first if what's cached for its side of the book is out of date.
+     * The matrix must already be translated to the page.
+     */
+    void drawPage(BookRendering rendering, boolean leftPage, VisualPage page, String pageNumber, boolean unicode)
+    {
+        int side = leftPage ? 0 : 1;
+        CachedPage cached = pages[side];
+        if (cached == null || !cached.matches(page, pageNumber, unicode))
+        {
+            if (cached != null)
+                cached.release();
+            pages[side] = new CachedPage(page, pageNumber, unicode).record(rendering);
+        }
+        else
+        {
+            cached.draw(rendering);
+        }
+    }
+
+    /**
+     * Deletes the display lists. Needed before the rendering is dropped, they are not garbage collected.
+     */
+    void invalidate()
+    {
+        for (int i = 0; i < pages.length; i++)
+        {
+            if (pages[i] != null)
+                pages[i].release();
+            pages[i] = null;
+        }
+    }
+
+    /**
+     * Puts the state the lists depend on into a known state, so whatever the list sets is recorded into it rather than
+     * skipped by the state cache, and replaying it gives the same result as recording it.
+     */
+    private static void prepareState()
+    {
+        GlStateManager.enableTexture2D();
+        GlStateManager.enableAlpha();
+        GlStateManager.alphaFunc(GL11.GL_GREATER, 0.1F);
+        GlStateManager.enableBlend();
+        GlStateManager.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+        GlStateManager.enableRescaleNormal();
+        GlStateManager.bindTexture(0);
+        GlStateManager.resetColor();
+    }
+
+    /**
+     * The state cache doesn't see what a list does when it's replayed; the texture and color are the only things the
+     * lists leave different from {@link #prepareState}, so those are set to something it knows about.
+     */
+    private static void syncState()
+    {
+        GlStateManager.bindTexture(0);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        GlStateManager.resetColor();
+    }
+
+    private static class CachedPage
+    {
+        private final VisualPage page;
+        private final String pageNumber;
+        private final boolean unicode;
+        private final int cachedGeneration = generation;
+
+        // Each entry is either a display list id, or an element to draw live
+        private final List<Object> segments = Lists.newArrayList();
+
+        CachedPage(VisualPage page, String pageNumber, boolean unicode)
+        {
+            this.page = page;
+            this.pageNumber = pageNumber;
+            this.unicode = unicode;
+        }
+
+        boolean matches(VisualPage page, String pageNumber, boolean unicode)
+        {
+            return this.page == page && this.pageNumber.equals(pageNumber) && this.unicode == unicode && cachedGeneration == generation;
+        }
+
+        /**
+         * Records the static runs of the page while drawing it.
+         */
+        CachedPage record(BookRendering rendering)
+        {
+            Integer list = null;
+            for (VisualElement e : page.children)
+            {
+                if (e.isStatic())
+                {
+                    if (list == null)
+                    {
+                        // Queued stacks mustn't end up in the list
+                        rendering.flushItems();
+                        list = beginList();
+                    }
+                    e.draw(rendering);
+                }
+                else
+                {
+                    if (list != null)
+                        endList(list);
+                    list = null;
+                    segments.add(e);
+                    e.draw(rendering);
+                }
+            }
+
+            if (list == null)
+            {
+                rendering.flushItems();
+                list = beginList();
+            }
+            rendering.drawPageNumber(pageNumber);
+            endList(list);
+            return this;
+        }
+
+        private int beginList()
+        {
+            int list = GLAllocation.generateDisplayLists(1);
+            prepareState();
+            GlStateManager.glNewList(list, GL11.GL_COMPILE_AND_EXECUTE);
+            return list;
+        }
+
+        private void endList(int list)
+        {
+            GlStateManager.glEndList();
+            syncState();
+            segments.add(list);
+        }
+
+        void draw(BookRendering rendering)
+        {
+            for (Object segment : segments)
+            {
+                if (segment instanceof Integer)
+                {
+                    rendering.flushItems();
+                    prepareState();
+                    GlStateManager.callList((Integer) segment);
+                    syncState();
+                }
+                else
+                {
+                    ((VisualElement) segment).draw(rendering);
+                }
+            }
+        }
+
+        void release()
+        {
+            for (Object segment : segments)
+            {
+                if (segment instanceof Integer)
+                    GLAllocation.deleteDisplayLists((Integer) segment);
+            }
+            segments.clear();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package gigaherz.guidebook.guidebook.client;
+
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.drawing.Size;
+import gigaherz.guidebook.guidebook.drawing.VisualElement;
+import gigaherz.guidebook.guidebook.drawing.VisualPage;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.OpenGlHelper;
+import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.client.shader.Framebuffer;
+import net.minecraft.util.math.MathHelper;
+import org.lwjgl.opengl.GL11;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pages rendered once into off-screen framebuffers, and then drawn as a single textured quad. The static elements
+ * and the page number go into the texture; stacks, links and anything else that changes between frames is drawn
+ * live on top of it.
+ * The most recently shown pages are kept, so flipping back and forth doesn't render them again. The textures match
+ * the screen pixels the page covers, so they are all dropped on resize and after resources are reloaded.
+ */
+class PageTextureCache
+{
+    // Both pages of the open spread are drawn every frame, keeping fewer would render them again each time
+    private static final int MIN_PAGES = 2;
+
+    // Bumped on resource reload, from the main thread
+    private static int generation;
+
+    private final Map<Key, PageTexture> textures = new LinkedHashMap<Key, PageTexture>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PageTexture> eldest)
+        {
+            if (size() <= Math.max(MIN_PAGES, GuidebookMod.pageTextureCache))
+                return false;
+            eldest.getValue().framebuffer.deleteFramebuffer();
+            return true;
+        }
+    };
+    private int cachedGeneration = generation;
+
+    static void invalidateAll()
+    {
+        generation++;
+    }
+
+    static boolean isSupported()
+    {
+        return GuidebookMod.pageTextureCache > 0 && OpenGlHelper.isFramebufferEnabled();
+    }
+
+    /**
+     * Draws the page from its texture, rendering it first if it isn't cached. The matrix must already be translated
+     * to the page.
+     *
+     * @param pixelsPerUnit how many screen pixels each unit of the page covers, which sets the size of the texture
+     */
+    void drawPage(BookRendering rendering, VisualPage page, String pageNumber, Size pageSize, boolean unicode, float pixelsPerUnit)
+    {
+        if (cachedGeneration != generation)
+        {
+            invalidate();
+            cachedGeneration = generation;
+        }
+
+        Key key = new Key(page, pageNumber, unicode);
+        PageTexture texture = textures.get(key);
+        if (texture == null)
+        {
+            texture = render(rendering, page, pageNumber, pageSize, pixelsPerUnit);
+            textures.put(key, texture);
+        }
+
+        texture.draw();
+
+        for (VisualElement e : page.children)
+        {
+            if (!e.isStatic())
+                e.draw(rendering);
+        }
+    }
+
+    /**
+     * Deletes every texture. Needed before the rendering is dropped, they are not garbage collected.
+     */
+    void invalidate()
+    {
+        for (PageTexture texture : textures.values())
+        {
+            texture.framebuffer.deleteFramebuffer();
+        }
+        textures.clear();
+    }
+
+    private static PageTexture render(BookRendering rendering, VisualPage page, String pageNumber, Size pageSize, float pixelsPerUnit)
+    {
+        // Covers the page and its number, and anything that sticks out of it
+        int left = 0, top = 0;
+        int right = pageSize.width;
+        int bottom = pageSize.height + 2 + rendering.gui.getFontRenderer().FONT_HEIGHT;
+        for (VisualElement e : page.children)
+        {
+            if (!e.isStatic())
+                continue;
+            left = Math.min(left, e.position.x);
+            top = Math.min(top, e.position.y);
+            right = Math.max(right, e.position.x + e.size.width);
+            bottom = Math.max(bottom, e.position.y + e.size.height);
+        }
+
+        Framebuffer framebuffer = new Framebuffer(
+                Math.max(1, MathHelper.ceil((right - left) * pixelsPerUnit)),
+                Math.max(1, MathHelper.ceil((bottom - top) * pixelsPerUnit)),
+                false);
+        framebuffer.setFramebufferFilter(GL11.GL_NEAREST);
+        framebuffer.setFramebufferColor(0, 0, 0, 0);
+        framebuffer.framebufferClear();
+        framebuffer.bindFramebuffer(true);
+
+        GlStateManager.matrixMode(GL11.GL_PROJECTION);
+        GlStateManager.pushMatrix();
+        GlStateManager.loadIdentity();
+        GlStateManager.ortho(left, right, bottom, top, 1000, 3000);
+        GlStateManager.matrixMode(GL11.GL_MODELVIEW);
+        GlStateManager.pushMatrix();
+        GlStateManager.loadIdentity();
+        GlStateManager.translate(0, 0, -2000);
+
+        for (VisualElement e : page.children)
+        {
+            if (e.isStatic())
+            {
+                blendPremultiplied();
+                e.draw(rendering);
+            }
+        }
+        blendPremultiplied();
+        rendering.drawPageNumber(pageNumber);
+
+        // Same as the usual blendFunc, set through the call that tracks all four factors
+        GlStateManager.tryBlendFuncSeparate(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA, GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+
+        GlStateManager.popMatrix();
+        GlStateManager.matrixMode(GL11.GL_PROJECTION);
+        GlStateManager.popMatrix();
+        GlStateManager.matrixMode(GL11.GL_MODELVIEW);
+
+        Minecraft.getMinecraft().getFramebuffer().bindFramebuffer(true);
+
+        return new PageTexture(framebuffer, left, top, right, bottom);
+    }
+
+    /**
+     * Blends the colors as usual but adds up the coverage, so the texture ends up with the colors already multiplied
+     * by its alpha, which is how it's drawn. Set before each element, some of them set the blend function themselves;
+     * the state cache skips their blendFunc calls if the color factors already match.
+     */
+    private static void blendPremultiplied()
+    {
+        GlStateManager.enableBlend();
+        GlStateManager.tryBlendFuncSeparate(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA, GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    private static class PageTexture
+    {
+        final Framebuffer framebuffer;
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+
+        PageTexture(Framebuffer framebuffer, int left, int top, int right, int bottom)
+        {
+            this.framebuffer = framebuffer;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void draw()
+        {
+            framebuffer.bindFramebufferTexture();
+            GlStateManager.enableTexture2D();
+            GlStateManager.disableAlpha();
+            GlStateManager.enableBlend();
+            // Text was blended onto a transparent background, so the colors already have the alpha applied
+            GlStateManager.blendFunc(GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+            GlStateManager.color(1.0F, 1.0F, 1.0F, 1.0F);
+
+            // Framebuffer textures start at the bottom
+            Tessellator tessellator = Tessellator.getInstance();
+            BufferBuilder buffer = tessellator.getBuffer();
+            buffer.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX);
+            buffer.pos(left, bottom, 0).tex(0, 0).endVertex();
+            buffer.pos(right, bottom, 0).tex(1, 0).endVertex();
+            buffer.pos(right, top, 0).tex(1, 1).endVertex();
+            buffer.pos(left, top, 0).tex(0, 1).endVertex();
+            tessellator.draw();
+
+            GlStateManager.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+            GlStateManager.enableAlpha();
+        }
+    }
+
+    private static final class Key
+    {
+        private final VisualPage page;
+        private final String pageNumber;
+        private final boolean unicode;
+
+        Key(VisualPage page, String pageNumber, boolean unicode)
+        {
+            this.page = page;
+            this.pageNumber = pageNumber;
+            this.unicode = unicode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return page == other.page && unicode == other.unicode && pageNumber.equals(other.pageNumber);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (System.identityHashCode(page) * 31 + pageNumber.hashCode()) * 31 + (unicode ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package gigaherz.guidebook.guidebook.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import net.minecraft.client.gui.FontRenderer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Text measurement for book layout, giving the same results as the FontRenderer methods it replaces.
+ * Glyph widths are read from the font once per character and kept in a table, and wrapped text is kept by
+ * (text, width, first line width), since the same spans get wrapped again every time a chapter is laid out.
+ * The lines don't depend on the text scale, that's applied by the caller.
+ * Used from the layout prefetch thread too, so everything in here is safe to share.
+ */
+public class TextMeasurer
+{
+    private static final int MAX_WRAPPED_TEXTS = 4096;
+
+    private static TextMeasurer current;
+
+    private final FontRenderer font;
+    private final boolean unicode;
+
+    // 256 characters per page, each page filled completely before it's published
+    private final AtomicReferenceArray<int[]> glyphWidths = new AtomicReferenceArray<>(256);
+
+    private final Cache<WrapKey, WrappedText> wrapCache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_WRAPPED_TEXTS)
+            .build();
+
+    /**
+     * @return the measurer for the font in its current mode, which is a new one whenever the unicode flag changes
+     */
+    public static synchronized TextMeasurer get(FontRenderer font)
+    {
+        if (current == null || current.font != font || current.unicode != font.getUnicodeFlag())
+            current = new TextMeasurer(font);
+        return current;
+    }
+
+    /**
+     * Forgets every measurement. Called when books are reloaded, which is also when a resource reload may have changed the font.
+     */
+    public static synchronized void clear()
+    {
+        current = null;
+    }
+
+    private TextMeasurer(FontRenderer font)
+    {
+        this.font = font;
+        this.unicode = font.getUnicodeFlag();
+    }
+
+    public int getFontHeight()
+    {
+        return font.FONT_HEIGHT;
+    }
+
+    public int getCharWidth(char c)
+    {
+        int[] page = glyphWidths.get(c >> 8);
+        if (page == null)
+        {
+            page = new int[256];
+            int base = c & 0xFF00;
+            for (int i = 0; i < 256; i++)
+            {
+                page[i] = font.getCharWidth((char) (base + i));
+            }
+            glyphWidths.set(c >> 8, page);
+        }
+        return page[c & 0xFF];
+    }
+
+    /**
+     * Same as {@link FontRenderer#getStringWidth}, including its handling of formatting codes.
+     */
+    public int getStringWidth(String text)
+    {
+        int width = 0;
+        boolean bold = false;
+
+        for (int i = 0; i < text.length(); ++i)
+        {
+            char c = text.charAt(i);
+            int w = getCharWidth(c);
+
+            if (w < 0 && i < text.length() - 1)
+            {
+                ++i;
+                c = text.charAt(i);
+
+                if (c == 'l' || c == 'L')
+                {
+                    bold = true;
+                }
+                else if (c == 'r' || c == 'R')
+                {
+                    bold = false;
+                }
+
+                w = 0;
+            }
+
+            width += w;
+
+            if (bold && w > 0)
+            {
+                ++width;
+            }
+        }
+
+        return width;
+    }
+
+    /**
+     * Splits the text into lines, with a "\n" entry between each pair of lines, the way FontRenderer wraps formatted text:
+     * each line after the first starts with the formatting codes still active at the end of the previous one.
+     */
+    public WrappedText wrap(String text, int wrapWidth, int wrapWidthFirstLine)
+    {
+        WrapKey key = new WrapKey(text, wrapWidth, wrapWidthFirstLine);
+        WrappedText wrapped = wrapCache.getIfPresent(key);
+        if (wrapped == null)
+        {
+            wrapped = wrapUncached(text, wrapWidth, wrapWidthFirstLine);
+            wrapCache.put(key, wrapped);
+        }
+        return wrapped;
+    }
+
+    private WrappedText wrapUncached(String text, int wrapWidth, int wrapWidthFirstLine)
+    {
+        List<String> lines = Lists.newArrayList();
+
+        // The rest of the text is always prefix + text.substring(start), without building that string for every line
+        String prefix = "";
+        int start = 0;
+        boolean firstLine = true;
+        while (true)
+        {
+            int length = prefix.length() + text.length() - start;
+            int i = sizeStringToWidth(prefix, text, start, firstLine ? wrapWidthFirstLine : wrapWidth);
+
+            if (length <= i)
+            {
+                lines.add(start == 0 && prefix.isEmpty() ? text : prefix + text.substring(start));
+                break;
+            }
+
+            char c = charAt(prefix, text, start, i);
+            int skip = c == ' ' || c == '\n' ? 1 : 0;
+
+            // Only when there isn't room for anything at all. The recursive version never returned from this.
+            if (!firstLine && i + skip <= prefix.length())
+                i = prefix.length() + 1;
+
+            String line = i <= prefix.length()
+                    ? prefix.substring(0, i)
+                    : prefix + text.substring(start, start + i - prefix.length());
+            lines.add(line);
+            lines.add("\n"); // line break
+
+            start += Math.max(0, i + skip - prefix.length());
+            prefix = FontRenderer.getFormatFromString(line);
+            firstLine = false;
+        }
+
+        int[] widths = new int[lines.size()];
+        for (int i = 0; i < widths.length; i++)
+        {
+            widths[i] = getStringWidth(lines.get(i));
+        }
+
+        return new WrappedText(lines.toArray(new String[0]), widths);
+    }
+
+    private static char charAt(String prefix, String text, int start, int index)
+    {
+        return index < prefix.length() ? prefix.charAt(index) : text.charAt(start + index - prefix.length());
+    }
+
+    private static boolean isFormatColor(char colorChar)
+    {
+        return colorChar >= '0' && colorChar <= '9' || colorChar >= 'a' && colorChar <= 'f' || colorChar >= 'A' && colorChar <= 'F';
+    }
+
+    private int sizeStringToWidth(String prefix, String text, int start, int wrapWidth)
+    {
+        int i = prefix.length() + text.length() - start;
+        int j = 0;
+        int k = 0;
+        int l = -1;
+
+        for (boolean flag = false; k < i; ++k)
+        {
+            char c0 = charAt(prefix, text, start, k);
+
+            switch (c0)
+            {
+                case '\n':
+                    --k;
+                    break;
+                case ' ':
+                    l = k;
+                default:
+                    j += getCharWidth(c0);
+
+                    if (flag)
+                    {
+                        ++j;
+                    }
+
+                    break;
+                case '\u00a7':
+
+                    if (k < i - 1)
+                    {
+                        ++k;
+                        char c1 = charAt(prefix, text, start, k);
+
+                        if (c1 != 'l' && c1 != 'L')
+                        {
+                            if (c1 == 'r' || c1 == 'R' || isFormatColor(c1))
+                            {
+                                flag = false;
+                            }
+                        }
+                        else
+                        {
+                            flag = true;
+                        }
+                    }
+            }
+
+            if (c0 == '\n')
+            {
+                ++k;
+                l = k;
+                break;
+            }
+
+            if (j > wrapWidth)
+            {
+                break;
+            }
+        }
+
+        return k != i && l != -1 && l < k ? l : k;
+    }
+
+    /**
+     * Lines and their unscaled widths. Shared between layouts, so they must not be modified.
+     */
+    public static class WrappedText
+    {
+        public final String[] lines;
+        public final int[] widths;
+
+        private WrappedText(String[] lines, int[] widths)
+        {
+            this.lines = lines;
+            this.widths = widths;
+        }
+    }
+
+    private static final class WrapKey
+    {
+        private final String text;
+        private final int wrapWidth;
+        private final int wrapWidthFirstLine;
+
+        private WrapKey(String text, int wrapWidth, int wrapWidthFirstLine)
+        {
+            this.text = text;
+            this.wrapWidth = wrapWidth;
+            this.wrapWidthFirstLine = wrapWidthFirstLine;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof WrapKey))
+                return false;
+            WrapKey other = (WrapKey) obj;
+            return wrapWidth == other.wrapWidth
+                    && wrapWidthFirstLine == other.wrapWidthFirstLine
+                    && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (text.hashCode() * 31 + wrapWidth) * 31 + wrapWidthFirstLine;
+        }
+    }
+}
@@ -39,7 +39,7 @@ public abstract class BasicConditions implements Predicate<ConditionContext>
 
     public static class ModLoaded extends BasicConditions
     {
-        private final String modId;
+        public final String modId;
 
         public ModLoaded(String modId)
         {
@@ -55,7 +55,7 @@ public abstract class BasicConditions implements Predicate<ConditionContext>
 
     public static class ItemExists extends BasicConditions
     {
-        private final ResourceLocation item;
+        public final ResourceLocation item;
 
         public ItemExists(ResourceLocation item)
         {
@@ -0,0 +1,129 @@
+package gigaherz.guidebook.guidebook.drawing;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Uniform grid over the bounds of the elements of a page, so finding the element under a point only tests the few
+ * elements overlapping its cell. Finds the same element a scan of the list would: the first one, in list order,
+ * whose bounds contain the point, edges included.
+ */
+public class HitGrid
+{
+    private static final int CELL_SIZE = 16;
+    private static final int MAX_CELLS = 4096;
+
+    private static final int[] NO_ELEMENTS = new int[0];
+
+    private final VisualElement[] elements;
+    private final int left;
+    private final int top;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[][] cells;
+
+    private HitGrid(VisualElement[] elements, int left, int top, int cellSize, int columns, int rows, int[][] cells)
+    {
+        this.elements = elements;
+        this.left = left;
+        this.top = top;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.cells = cells;
+    }
+
+    /**
+     * @param filter which elements can be found, the rest are left out of the grid
+     */
+    public static HitGrid build(List<VisualElement> children, Predicate<VisualElement> filter)
+    {
+        VisualElement[] elements = children.stream().filter(filter).toArray(VisualElement[]::new);
+        if (elements.length == 0)
+            return new HitGrid(elements, 0, 0, CELL_SIZE, 0, 0, new int[0][]);
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (VisualElement e : elements)
+        {
+            minX = Math.min(minX, e.position.x);
+            minY = Math.min(minY, e.position.y);
+            maxX = Math.max(maxX, e.position.x + e.size.width);
+            maxY = Math.max(maxY, e.position.y + e.size.height);
+        }
+
+        // Coarser cells for anything unusually large, so the grid itself stays small
+        int cellSize = CELL_SIZE;
+        while (((maxX - minX) / cellSize + 1) * ((maxY - minY) / cellSize + 1) > MAX_CELLS)
+            cellSize *= 2;
+
+        int columns = (maxX - minX) / cellSize + 1;
+        int rows = (maxY - minY) / cellSize + 1;
+
+        int[] counts = new int[columns * rows];
+        for (VisualElement e : elements)
+        {
+            forEachCell(e, minX, minY, cellSize, columns, cell -> counts[cell]++);
+        }
+
+        int[][] cells = new int[counts.length][];
+        for (int i = 0; i < counts.length; i++)
+        {
+            cells[i] = counts[i] > 0 ? new int[counts[i]] : NO_ELEMENTS;
+        }
+
+        // Filled in list order, so each cell's indices are sorted and the first match is the one a scan would find
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < elements.length; i++)
+        {
+            int index = i;
+            forEachCell(elements[i], minX, minY, cellSize, columns, cell -> cells[cell][counts[cell]++] = index);
+        }
+
+        return new HitGrid(elements, minX, minY, cellSize, columns, rows, cells);
+    }
+
+    private static void forEachCell(VisualElement e, int left, int top, int cellSize, int columns, CellVisitor visitor)
+    {
+        int x0 = (e.position.x - left) / cellSize;
+        int y0 = (e.position.y - top) / cellSize;
+        int x1 = (e.position.x + e.size.width - left) / cellSize;
+        int y1 = (e.position.y + e.size.height - top) / cellSize;
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                visitor.accept(y * columns + x);
+            }
+        }
+    }
+
+    @Nullable
+    public VisualElement find(int x, int y)
+    {
+        if (x < left || y < top)
+            return null;
+
+        int column = (x - left) / cellSize;
+        int row = (y - top) / cellSize;
+        if (column >= columns || row >= rows)
+            return null;
+
+        for (int index : cells[row * columns + column])
+        {
+            VisualElement e = elements[index];
+            if (x >= e.position.x && x <= (e.position.x + e.size.width) &&
+                    y >= e.position.y && y <= (e.position.y + e.size.height))
+                return e;
+        }
+        return null;
+    }
+
+    private interface CellVisitor
+    {
+        void accept(int cell);
+    }
+}
@@ -38,5 +38,13 @@ public abstract class VisualElement extends Rect
         return false;
     }
 
+    /**
+     * @return whether draw always draws the same thing, so it can be recorded once and replayed
+     */
+    public boolean isStatic()
+    {
+        return false;
+    }
+
     public String getText() { return ""; }
 }
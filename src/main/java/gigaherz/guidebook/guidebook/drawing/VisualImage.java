@@ -27,4 +27,10 @@ public class VisualImage extends VisualElement
     {
         nav.drawImage(textureLocation, position.x, position.y, tx, ty, size.width, size.height, tw, th, 1.0f);
     }
+
+    @Override
+    public boolean isStatic()
+    {
+        return true;
+    }
 }
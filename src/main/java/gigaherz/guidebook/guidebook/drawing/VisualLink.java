@@ -50,6 +50,13 @@ public class VisualLink extends VisualText
         return true;
     }
 
+    @Override
+    public boolean isStatic()
+    {
+        // The color changes on hover
+        return false;
+    }
+
     @Override
     public void mouseOver(IBookGraphics nav, int x, int y)
     {
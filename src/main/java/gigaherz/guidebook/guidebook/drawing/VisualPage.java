@@ -2,9 +2,46 @@ package gigaherz.guidebook.guidebook.drawing;
 
 import com.google.common.collect.Lists;
 
+import javax.annotation.Nullable;
 import java.util.List;
 
 public class VisualPage
 {
     public final List<VisualElement> children = Lists.newArrayList();
+
+    // Children must not change or move once these are built
+    private volatile HitGrid clickGrid;
+    private volatile HitGrid hoverGrid;
+
+    /**
+     * Builds the hit-test grids, once layout has put the children in their final positions.
+     * Otherwise they are built on the first hover or click.
+     */
+    public void buildHitGrids()
+    {
+        clickGrid = HitGrid.build(children, e -> true);
+        hoverGrid = HitGrid.build(children, VisualElement::wantsHover);
+    }
+
+    /**
+     * @return the first element under the point, in page coordinates
+     */
+    @Nullable
+    public VisualElement findClicked(int x, int y)
+    {
+        if (clickGrid == null)
+            buildHitGrids();
+        return clickGrid.find(x, y);
+    }
+
+    /**
+     * @return the first element under the point that wants hover events, in page coordinates
+     */
+    @Nullable
+    public VisualElement findHovered(int x, int y)
+    {
+        if (hoverGrid == null)
+            buildHitGrids();
+        return hoverGrid.find(x, y);
+    }
 }
@@ -14,4 +14,10 @@ public class VisualPageBreak extends VisualElement
     {
         // not a drawableelement
     }
+
+    @Override
+    public boolean isStatic()
+    {
+        return true;
+    }
 }
@@ -21,6 +21,12 @@ public class VisualText extends VisualElement
         nav.addString(position.x, position.y, text, color, scale);
     }
 
+    @Override
+    public boolean isStatic()
+    {
+        return true;
+    }
+
     @Override
     public String getText() { return text; }
 }
@@ -2,6 +2,8 @@ package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.primitives.Floats;
 import com.google.common.primitives.Ints;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.conditions.ConditionContext;
@@ -13,9 +15,12 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public abstract class Element
@@ -67,6 +72,27 @@ public abstract class Element
         return conditionResult != oldValue;
     }
 
+    /**
+     * Records the result of every condition in this element and the ones inside it, in a fixed order,
+     * so that two layouts with the same bits came from the same visible content.
+     *
+     * @return the next free bit
+     */
+    public int fingerprintConditions(BitSet bits, int index)
+    {
+        if (condition != null)
+            bits.set(index++, conditionResult);
+        return index;
+    }
+
+    /**
+     * Calls the visitor with this element and every element inside it, parents first.
+     */
+    public void visit(Consumer<Element> visitor)
+    {
+        visitor.accept(this);
+    }
+
     public List<VisualElement> measure(IBookGraphics nav, int width, int firstLineWidth)
     {
         return Collections.emptyList();
@@ -122,6 +148,38 @@ public abstract class Element
         return other;
     }
 
+    /**
+     * Writes everything {@link #parse} produced, for the compiled book cache.
+     * Subclasses with more state must call super first, and mirror it in {@link #readCompiled}.
+     */
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        out.writeByte(position);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(w);
+        out.writeInt(h);
+        out.writeInt(z);
+        out.writeFloat(scale);
+        out.writeFloat(baseline);
+        out.writeByte(verticalAlignment);
+        out.writeCondition(condition);
+    }
+
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        position = in.readByte();
+        x = in.readInt();
+        y = in.readInt();
+        w = in.readInt();
+        h = in.readInt();
+        z = in.readInt();
+        scale = in.readFloat();
+        baseline = in.readFloat();
+        verticalAlignment = in.readByte();
+        condition = in.readCondition();
+    }
+
     public void parse(IConditionSource book, NamedNodeMap attributes)
     {
         Node attr = attributes.getNamedItem("x");
@@ -1,6 +1,8 @@
 package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.primitives.Ints;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.drawing.Rect;
@@ -11,6 +13,7 @@ import net.minecraft.util.ResourceLocation;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -95,6 +98,28 @@ public class ElementImage extends Element
         }
     }
 
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        out.writeResourceLocation(textureLocation);
+        out.writeInt(tx);
+        out.writeInt(ty);
+        out.writeInt(tw);
+        out.writeInt(th);
+    }
+
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        textureLocation = in.readResourceLocation();
+        tx = in.readInt();
+        ty = in.readInt();
+        tw = in.readInt();
+        th = in.readInt();
+    }
+
     @Override
     public Element copy()
     {
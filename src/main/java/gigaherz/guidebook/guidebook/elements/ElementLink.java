@@ -1,6 +1,8 @@
 package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.collect.Lists;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.SectionRef;
@@ -10,6 +12,7 @@ import gigaherz.guidebook.guidebook.drawing.VisualText;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import java.io.IOException;
 import java.util.List;
 
 public class ElementLink extends ElementSpan
@@ -87,6 +90,26 @@ public class ElementLink extends ElementSpan
         }
     }
 
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        out.writeString(textTarget);
+        out.writeString(textAction);
+        out.writeSectionRef(target);
+        out.writeInt(colorHover);
+    }
+
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        textTarget = in.readString();
+        textAction = in.readString();
+        target = in.readSectionRef();
+        colorHover = in.readInt();
+    }
+
     @Override
     public Element copy()
     {
@@ -2,6 +2,8 @@ package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.conditions.ConditionContext;
@@ -13,8 +15,11 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public class ElementPanel extends Element
 {
@@ -66,6 +71,27 @@ public class ElementPanel extends Element
         return anyChanged;
     }
 
+    @Override
+    public int fingerprintConditions(BitSet bits, int index)
+    {
+        index = super.fingerprintConditions(bits, index);
+        for (Element element : innerElements)
+        {
+            index = element.fingerprintConditions(bits, index);
+        }
+        return index;
+    }
+
+    @Override
+    public void visit(Consumer<Element> visitor)
+    {
+        super.visit(visitor);
+        for (Element element : innerElements)
+        {
+            element.visit(visitor);
+        }
+    }
+
     @Override
     public int reflow(List<VisualElement> list, IBookGraphics nav, Rect bounds, Rect pageBounds)
     {
@@ -89,6 +115,24 @@ public class ElementPanel extends Element
         }
     }
 
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        out.writeBoolean(asPercent);
+        out.writeInt(space);
+        out.writeElements(innerElements);
+    }
+
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        asPercent = in.readBoolean();
+        space = in.readInt();
+        in.readElements(innerElements);
+    }
+
     @Override
     public Element copy()
     {
@@ -2,6 +2,8 @@ package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.conditions.ConditionContext;
@@ -13,7 +15,10 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class ElementParagraph extends Element
 {
@@ -43,6 +48,27 @@ public class ElementParagraph extends Element
         return anyChanged;
     }
 
+    @Override
+    public int fingerprintConditions(BitSet bits, int index)
+    {
+        index = super.fingerprintConditions(bits, index);
+        for (Element element : inlines)
+        {
+            index = element.fingerprintConditions(bits, index);
+        }
+        return index;
+    }
+
+    @Override
+    public void visit(Consumer<Element> visitor)
+    {
+        super.visit(visitor);
+        for (Element element : inlines)
+        {
+            element.visit(visitor);
+        }
+    }
+
     @Override
     public int reflow(List<VisualElement> paragraph, IBookGraphics nav, Rect bounds, Rect page)
     {
@@ -219,6 +245,28 @@ public class ElementParagraph extends Element
         }
     }
 
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        out.writeByte(alignment);
+        out.writeInt(indent);
+        out.writeInt(indentFirstLine);
+        out.writeInt(space);
+        out.writeElements(inlines);
+    }
+
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        alignment = in.readByte();
+        indent = in.readInt();
+        indentFirstLine = in.readInt();
+        space = in.readInt();
+        in.readElements(inlines);
+    }
+
     @Override
     public Element copy()
     {
@@ -2,17 +2,22 @@ package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.primitives.Ints;
 import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.drawing.Point;
 import gigaherz.guidebook.guidebook.drawing.Rect;
 import gigaherz.guidebook.guidebook.drawing.VisualElement;
+import gigaherz.guidebook.guidebook.recipe.RecipeComponentCache;
 import gigaherz.guidebook.guidebook.recipe.RecipeProvider;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.ResourceLocation;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -28,19 +33,26 @@ public class ElementRecipe extends Element
     private int recipeIndex = 0; // An index to use to specify a certain recipe when multiple ones exist for the target output item
     private int indent = 0;
 
-    private RecipeProvider.ProvidedComponents retrieveRecipe(RecipeProvider recipeProvider, ElementStack output)
+    public ResourceLocation getRecipeProviderKey()
     {
-        if (output == null ||output.stacks == null ||output.stacks.length == 0)
-            return null;
-
-        ItemStack targetOutput = output.stacks[0];
-
-        return recipeProvider.provideRecipeComponents(targetOutput, recipeIndex);
+        return recipeProviderKey;
     }
 
-    private RecipeProvider.ProvidedComponents retrieveRecipe(RecipeProvider recipeProvider, ResourceLocation recipeKey)
+    /**
+     * @return what to ask the provider for, or null if neither a recipe name nor a usable output was given
+     */
+    @Nullable
+    public RecipeProvider.RecipeRequest getRecipeRequest()
     {
-        return recipeProvider.provideRecipeComponents(recipeKey);
+        if (recipeKey != null)
+            return new RecipeProvider.RecipeRequest(recipeKey);
+
+        if (recipeOutput == null || recipeOutput.stacks == null || recipeOutput.stacks.length == 0)
+            return null;
+
+        ItemStack targetOutput = recipeOutput.stacks[0];
+
+        return new RecipeProvider.RecipeRequest(targetOutput, recipeIndex);
     }
 
     @Override
@@ -49,11 +61,10 @@ public class ElementRecipe extends Element
         RecipeProvider recipeProvider = RecipeProvider.registry.get(recipeProviderKey);
         RecipeProvider.ProvidedComponents components = null;
 
-        if (recipeProvider != null)
+        RecipeProvider.RecipeRequest request = getRecipeRequest();
+        if (recipeProvider != null && request != null)
         {
-            components = recipeKey != null
-                    ? retrieveRecipe(recipeProvider, recipeKey)
-                    : retrieveRecipe(recipeProvider, recipeOutput);
+            components = RecipeComponentCache.get(recipeProviderKey, recipeProvider, request);
         }
 
         if (components == null)
@@ -159,6 +170,34 @@ public class ElementRecipe extends Element
         }
     }
 
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        out.writeResourceLocation(recipeProviderKey);
+        out.writeResourceLocation(recipeKey);
+        out.writeBoolean(recipeOutput != null);
+        if (recipeOutput != null)
+            recipeOutput.writeCompiled(out);
+        out.writeInt(recipeIndex);
+        out.writeInt(indent);
+    }
+
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        recipeProviderKey = in.readResourceLocation();
+        recipeKey = in.readResourceLocation();
+        if (in.readBoolean())
+        {
+            recipeOutput = new ElementStack();
+            recipeOutput.readCompiled(in);
+        }
+        recipeIndex = in.readInt();
+        indent = in.readInt();
+    }
+
     @Override
     public Element copy()
     {
@@ -1,5 +1,7 @@
 package gigaherz.guidebook.guidebook.elements;
 
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.drawing.Rect;
@@ -10,6 +12,7 @@ import net.minecraft.util.text.TextFormatting;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import java.io.IOException;
 import java.util.List;
 
 public class ElementSpan extends Element
@@ -131,6 +134,29 @@ public class ElementSpan extends Element
 
     }
 
+    // The text itself is a constructor argument, so CompiledBookOutput writes it before calling this.
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        out.writeInt(color);
+        out.writeBoolean(bold);
+        out.writeBoolean(italics);
+        out.writeBoolean(underline);
+        out.writeString(translationKey);
+    }
+
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        color = in.readInt();
+        bold = in.readBoolean();
+        italics = in.readBoolean();
+        underline = in.readBoolean();
+        translationKey = in.readString();
+    }
+
     @Override
     public Element copy()
     {
@@ -2,24 +2,26 @@ package gigaherz.guidebook.guidebook.elements;
 
 import com.google.common.primitives.Ints;
 import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.CompiledBookInput;
+import gigaherz.guidebook.guidebook.CompiledBookOutput;
 import gigaherz.guidebook.guidebook.IBookGraphics;
 import gigaherz.guidebook.guidebook.IConditionSource;
+import gigaherz.guidebook.guidebook.ItemExpansionCache;
 import gigaherz.guidebook.guidebook.drawing.Rect;
 import gigaherz.guidebook.guidebook.drawing.Size;
 import gigaherz.guidebook.guidebook.drawing.VisualElement;
 import gigaherz.guidebook.guidebook.drawing.VisualStack;
-import net.minecraft.creativetab.CreativeTabs;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.JsonToNBT;
 import net.minecraft.nbt.NBTException;
 import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.NonNullList;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.oredict.OreDictionary;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
@@ -113,22 +115,7 @@ public class ElementStack extends Element
             {
                 if (((meta == OreDictionary.WILDCARD_VALUE) || meta == -1) && item.getHasSubtypes())
                 {
-                    NonNullList<ItemStack> processed_items = NonNullList.create();
-                    NonNullList<ItemStack> subitems = NonNullList.create();
-
-                    item.getSubItems(CreativeTabs.SEARCH, subitems);
-
-                    for (ItemStack subitem : subitems)
-                    {
-                        subitem = subitem.copy();
-
-                        subitem.setCount(stackSize);
-                        subitem.setTagCompound(tag);
-
-                        processed_items.add(subitem);
-                    }
-
-                    stacks = subitems.toArray(new ItemStack[subitems.size()]);
+                    stacks = ItemExpansionCache.withCountAndTag(ItemExpansionCache.getSubItems(item), stackSize, tag);
                 }
                 else
                 {
@@ -144,45 +131,49 @@ public class ElementStack extends Element
         if (attr != null)
         {
             String oreName = attr.getTextContent();
-            //list of matching item stack; may contain wildcard meta data
-            NonNullList<ItemStack> items = OreDictionary.getOres(oreName);
+            //matching item stacks, with wildcard meta data already resolved to subitems
+            ItemExpansionCache.OreExpansion ore = ItemExpansionCache.getOre(oreName);
 
-            if (items.size() != 0)
+            if (ore.stacks.length != 0)
             {
-                //init empty list to fill with resolved items
-                NonNullList<ItemStack> items_processed = NonNullList.create();
+                stacks = ore.withCountAndTag(stackSize, tag);
+            }
+        }
+    }
 
-                //foreach item: try to resolve wildcard meta data
-                for (ItemStack item : items)
-                {
-                    //make sure not to mess up ore dictionary item stacks
-                    item = item.copy();
-                    meta = item.getMetadata();
-
-                    if (meta == OreDictionary.WILDCARD_VALUE && item.getHasSubtypes())
-                    {
-                        //replace wildcard metas with subitems
-                        NonNullList<ItemStack> subitems = NonNullList.create();
-                        item.getItem().getSubItems(CreativeTabs.SEARCH, subitems);
-                        for (ItemStack subitem : subitems)
-                        {
-                            //just in case the ItemStack instance is not just a copy or a new instance
-                            subitem = subitem.copy();
-
-                            subitem.setCount(stackSize);
-                            subitem.setTagCompound(tag);
-                            items_processed.add(subitem);
-                        }
-                    }
-                    else
-                    {
-                        item.setCount(stackSize);
-                        items_processed.add(item);
-                    }
-                }
+    @Override
+    public void writeCompiled(CompiledBookOutput out) throws IOException
+    {
+        super.writeCompiled(out);
+        if (stacks == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            out.writeInt(stacks.length);
+            for (ItemStack stack : stacks)
+            {
+                out.writeItemStack(stack);
+            }
+        }
+    }
 
-                //
-                stacks = items_processed.toArray(new ItemStack[items_processed.size()]);
+    @Override
+    public void readCompiled(CompiledBookInput in) throws IOException
+    {
+        super.readCompiled(in);
+        int count = in.readInt();
+        if (count < 0)
+        {
+            stacks = null;
+        }
+        else
+        {
+            stacks = new ItemStack[count];
+            for (int i = 0; i < count; i++)
+            {
+                stacks[i] = in.readItemStack();
             }
         }
     }
@@ -1,11 +1,10 @@
 package gigaherz.guidebook.guidebook.recipe;
 
+import com.google.common.collect.ImmutableListMultimap;
 import gigaherz.guidebook.GuidebookMod;
-import gigaherz.guidebook.guidebook.IBookGraphics;
-import gigaherz.guidebook.guidebook.drawing.Size;
-import gigaherz.guidebook.guidebook.drawing.VisualElement;
 import gigaherz.guidebook.guidebook.elements.ElementImage;
 import gigaherz.guidebook.guidebook.elements.ElementStack;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.crafting.IRecipe;
 import net.minecraft.item.crafting.Ingredient;
@@ -17,7 +16,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Stream;
 
 /**
  * @author joazlazer
@@ -40,6 +38,9 @@ class CraftingRecipeProvider extends RecipeProvider
     private static final int[] HEIGHT = BACKGROUND_H;
     private static final int LEFT_OFFSET = 38;
 
+    // Recipes by output item, in registry order. Built on first use, since mods can still add recipes late in loading.
+    private volatile ImmutableListMultimap<Item, IRecipe> recipesByOutput;
+
     @Nullable
     @Override
     public ProvidedComponents provideRecipeComponents(@Nonnull ItemStack targetOutput, int recipeIndex)
@@ -60,15 +61,65 @@ class CraftingRecipeProvider extends RecipeProvider
         return ForgeRegistries.RECIPES.getValue(name);
     }
 
+    @Override
+    public boolean canResolveOffThread()
+    {
+        // Only reads the recipe registry, and the index is built under a lock
+        return true;
+    }
+
+    @Override
+    public List<ProvidedComponents> provideAllRecipeComponents(List<RecipeRequest> requests)
+    {
+        // A single pass over the registry builds the index, and every request is answered from it
+        getRecipesByOutputIndex();
+        return super.provideAllRecipeComponents(requests);
+    }
+
+    @Override
+    public void invalidateCaches()
+    {
+        recipesByOutput = null;
+    }
+
+    private ImmutableListMultimap<Item, IRecipe> getRecipesByOutputIndex()
+    {
+        ImmutableListMultimap<Item, IRecipe> index = recipesByOutput;
+        if (index == null)
+        {
+            synchronized (this)
+            {
+                index = recipesByOutput;
+                if (index == null)
+                {
+                    ImmutableListMultimap.Builder<Item, IRecipe> builder = ImmutableListMultimap.builder();
+                    for (IRecipe r : ForgeRegistries.RECIPES.getValuesCollection())
+                    {
+                        ItemStack output = r.getRecipeOutput();
+                        if (!r.isDynamic() && !output.isEmpty())
+                            builder.put(output.getItem(), r);
+                    }
+                    recipesByOutput = index = builder.build();
+                }
+            }
+        }
+        return index;
+    }
+
     @Nullable
     private IRecipe getRecipesByOutput(@Nonnull ItemStack targetOutput, int recipeIndex)
     {
-        return ForgeRegistries.RECIPES.getValuesCollection().stream()
-                .filter(r -> !r.isDynamic()
-                        && ItemStack.areItemsEqualIgnoreDurability(targetOutput, r.getRecipeOutput())
-                        /*&& ItemStack.areItemStackTagsEqual(targetOutput, r.getRecipeOutput())*/
-                )
-                .skip(recipeIndex).findFirst().orElse(null);
+        // Only the recipes for the same item are checked, with the same comparison as the full scan this replaces,
+        // so metadata and durability still match the same way and recipeIndex counts the same recipes.
+        int skip = recipeIndex;
+        for (IRecipe r : getRecipesByOutputIndex().get(targetOutput.getItem()))
+        {
+            if (ItemStack.areItemsEqualIgnoreDurability(targetOutput, r.getRecipeOutput())
+                    /*&& ItemStack.areItemStackTagsEqual(targetOutput, r.getRecipeOutput())*/
+                    && skip-- == 0)
+                return r;
+        }
+        return null;
     }
 
     @Nullable
@@ -79,13 +130,6 @@ class CraftingRecipeProvider extends RecipeProvider
 
         int constantIndex = recipe.getIngredients().size() <= 4 ? 1 : 0; // Whether to use the 3x3 (0) or 2x2 (1) grid
         ArrayList<ElementStack> stackComponents = new ArrayList<>();
-        VisualElement additionalRenderer = new VisualElement(new Size(), 0, 0, 0)
-        {
-            @Override
-            public void draw(IBookGraphics nav)
-            {
-            }
-        };
         int gridWidth = constantIndex == 0 ? 3 : 2;
 
         // Set up input slots
@@ -134,6 +178,6 @@ class CraftingRecipeProvider extends RecipeProvider
         ElementStack[] components = new ElementStack[stackComponents.size()];
         stackComponents.toArray(components);
 
-        return new ProvidedComponents(height, components, background, additionalRenderer);
+        return new ProvidedComponents(height, components, background, null); // Nothing else to draw, so no delegate
     }
 }
@@ -1,18 +1,20 @@
 package gigaherz.guidebook.guidebook.recipe;
 
+import com.google.common.collect.ImmutableListMultimap;
 import gigaherz.guidebook.GuidebookMod;
-import gigaherz.guidebook.guidebook.IBookGraphics;
-import gigaherz.guidebook.guidebook.drawing.Size;
-import gigaherz.guidebook.guidebook.drawing.VisualElement;
 import gigaherz.guidebook.guidebook.elements.ElementImage;
 import gigaherz.guidebook.guidebook.elements.ElementStack;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.crafting.FurnaceRecipes;
 import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.oredict.OreDictionary;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author joazlazer
@@ -34,30 +36,27 @@ public class FurnaceRecipeProvider extends RecipeProvider
     private static final int HEIGHT = BACKGROUND_H;
     private static final int LEFT_OFFSET = 38;
 
+    private volatile SmeltingIndex smeltingIndex;
+
     @Override
     @Nullable
     public ProvidedComponents provideRecipeComponents(@Nonnull ItemStack targetOutput, int recipeIndex)
     {
         // Ignore recipeIndex because a furnace recipe can show each recipe by alternating the slots
 
+        SmeltingIndex index = getSmeltingIndex();
+
         ArrayList<ItemStack> inputStacks = new ArrayList<>();
-        for (ItemStack key : FurnaceRecipes.instance().getSmeltingList().keySet())
+        for (Map.Entry<ItemStack, ItemStack> recipe : index.byResult.get(targetOutput.getItem()))
         {
-            if (FurnaceRecipes.instance().getSmeltingList().get(key).isItemEqual(targetOutput))
+            if (recipe.getValue().isItemEqual(targetOutput))
             {
-                inputStacks.addAll(copyAndExpand(key));
+                inputStacks.addAll(copyAndExpand(recipe.getKey()));
             }
         }
 
         if (inputStacks.size() > 0) // Should always be true
         {
-            VisualElement additionalRenderer = new VisualElement(new Size(), 0, 0, 0)
-            {
-                @Override
-                public void draw(IBookGraphics nav)
-                {
-                }
-            };
             ElementStack[] recipeComponents = new ElementStack[2];
 
             // Set up input slot element
@@ -77,7 +76,7 @@ public class FurnaceRecipeProvider extends RecipeProvider
             for (ItemStack inputStack : inputStacks)
             {
                 // Use copyAndExpand utility method to fix WILDCARD_VALUE stack meta's and low-durability tools
-                outputStacks.addAll(copyAndExpand(FurnaceRecipes.instance().getSmeltingResult(inputStack)));
+                outputStacks.addAll(copyAndExpand(index.getSmeltingResult(inputStack)));
             }
             outputStacks.toArray(outputSlot.stacks);
             outputSlot.x = OUTPUT_SLOT_X + LEFT_OFFSET;
@@ -93,13 +92,49 @@ public class FurnaceRecipeProvider extends RecipeProvider
             background.w = BACKGROUND_W;
             background.h = BACKGROUND_H;
 
-            return new ProvidedComponents(HEIGHT, recipeComponents, background, additionalRenderer);
+            return new ProvidedComponents(HEIGHT, recipeComponents, background, null); // Nothing else to draw, so no delegate
         }
         else
             GuidebookMod.logger.error(String.format("[FurnaceRecipeProvider] Recipe not found for '%s' although hasRecipe(...) returned true. Something is wrong!", targetOutput));
         return null;
     }
 
+    @Override
+    public boolean canResolveOffThread()
+    {
+        // Only reads the smelting list, and the index is built under a lock
+        return true;
+    }
+
+    @Override
+    public List<ProvidedComponents> provideAllRecipeComponents(List<RecipeRequest> requests)
+    {
+        // A single pass over the smelting list builds the index, and every request is answered from it
+        getSmeltingIndex();
+        return super.provideAllRecipeComponents(requests);
+    }
+
+    @Override
+    public void invalidateCaches()
+    {
+        smeltingIndex = null;
+    }
+
+    private SmeltingIndex getSmeltingIndex()
+    {
+        SmeltingIndex index = smeltingIndex;
+        if (index == null)
+        {
+            synchronized (this)
+            {
+                index = smeltingIndex;
+                if (index == null)
+                    smeltingIndex = index = new SmeltingIndex(FurnaceRecipes.instance().getSmeltingList());
+            }
+        }
+        return index;
+    }
+
     @Nullable
     @Override
     public ProvidedComponents provideRecipeComponents(@Nonnull ResourceLocation recipeKey)
@@ -107,4 +142,41 @@ public class FurnaceRecipeProvider extends RecipeProvider
         GuidebookMod.logger.warn(String.format("[FurnaceRecipeProvider] Furnace recipe specified via recipeKey '%s', however furnace recipes are not registered using a ResourceLocation. Ignoring.", recipeKey));
         return null;
     }
+
+    /**
+     * The smelting list indexed both ways by item, keeping the order of the list within each item,
+     * so the lookups find the same recipes a scan over the whole list would.
+     */
+    private static class SmeltingIndex
+    {
+        final ImmutableListMultimap<Item, Map.Entry<ItemStack, ItemStack>> byResult;
+        final ImmutableListMultimap<Item, Map.Entry<ItemStack, ItemStack>> byInput;
+
+        SmeltingIndex(Map<ItemStack, ItemStack> smeltingList)
+        {
+            ImmutableListMultimap.Builder<Item, Map.Entry<ItemStack, ItemStack>> results = ImmutableListMultimap.builder();
+            ImmutableListMultimap.Builder<Item, Map.Entry<ItemStack, ItemStack>> inputs = ImmutableListMultimap.builder();
+            for (Map.Entry<ItemStack, ItemStack> recipe : smeltingList.entrySet())
+            {
+                results.put(recipe.getValue().getItem(), recipe);
+                inputs.put(recipe.getKey().getItem(), recipe);
+            }
+            byResult = results.build();
+            byInput = inputs.build();
+        }
+
+        /**
+         * Same match as FurnaceRecipes.getSmeltingResult: same item, and same metadata unless the recipe input is a wildcard.
+         */
+        ItemStack getSmeltingResult(ItemStack stack)
+        {
+            for (Map.Entry<ItemStack, ItemStack> recipe : byInput.get(stack.getItem()))
+            {
+                int meta = recipe.getKey().getMetadata();
+                if (meta == OreDictionary.WILDCARD_VALUE || meta == stack.getMetadata())
+                    return recipe.getValue();
+            }
+            return ItemStack.EMPTY;
+        }
+    }
 }
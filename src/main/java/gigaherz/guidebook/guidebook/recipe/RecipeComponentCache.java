@@ -0,0 +1,219 @@
+package gigaherz.guidebook.guidebook.recipe;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.BookDocument;
+import gigaherz.guidebook.guidebook.elements.ElementRecipe;
+import net.minecraft.client.Minecraft;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the components providers return, so laying a recipe out again reuses the resolved stacks instead of asking
+ * the provider every time. Recipes that weren't found are remembered too.
+ * The components are shared between layouts, so they must not be modified after they're returned. Components with a
+ * render delegate are never kept, since the delegate is a visual element and gets moved around by pagination.
+ */
+public class RecipeComponentCache
+{
+    private static final int MAX_ENTRIES = 1024;
+
+    private static final Cache<Key, Optional<RecipeProvider.ProvidedComponents>> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .build();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // Bumped by invalidate, so results looked up before it don't get stored after it
+    private static int generation;
+
+    @Nullable
+    public static RecipeProvider.ProvidedComponents get(ResourceLocation providerKey, RecipeProvider provider, RecipeProvider.RecipeRequest request)
+    {
+        Key key = Key.of(providerKey, request);
+        Optional<RecipeProvider.ProvidedComponents> cached = cache.getIfPresent(key);
+        if (cached != null)
+        {
+            hits.incrementAndGet();
+            return cached.orElse(null);
+        }
+
+        // Thrown rather than answered with a missing recipe, so the layout this is part of doesn't get cached
+        if (!provider.canResolveOffThread() && !Minecraft.getMinecraft().isCallingFromMinecraftThread())
+            throw new IllegalStateException("Recipe provider " + providerKey + " can only be used from the main thread");
+
+        misses.incrementAndGet();
+        int fromGeneration = getGeneration();
+        RecipeProvider.ProvidedComponents components = request.recipeKey != null
+                ? provider.provideRecipeComponents(request.recipeKey)
+                : provider.provideRecipeComponents(request.targetOutput, request.recipeIndex);
+        store(key, components, fromGeneration);
+        return components;
+    }
+
+    /**
+     * @return whether every recipe in the chapter is either cached already, or from a provider that
+     * {@link RecipeProvider#canResolveOffThread can be used off the main thread}, so the chapter can be laid out in the background
+     */
+    public static boolean canResolveOffThread(BookDocument book, int chapterIndex)
+    {
+        boolean[] canResolve = {true};
+        boolean loaded = book.visitChapterElements(chapterIndex, (section, element) -> {
+            if (!canResolve[0] || !(element instanceof ElementRecipe))
+                return;
+
+            ElementRecipe recipe = (ElementRecipe) element;
+            RecipeProvider.RecipeRequest request = recipe.getRecipeRequest();
+            RecipeProvider provider = RecipeProvider.registry.get(recipe.getRecipeProviderKey());
+            if (request != null && provider != null && !provider.canResolveOffThread()
+                    && cache.getIfPresent(Key.of(recipe.getRecipeProviderKey(), request)) == null)
+            {
+                canResolve[0] = false;
+            }
+        });
+        return loaded && canResolve[0];
+    }
+
+    /**
+     * Resolves every recipe in the loaded chapters of the book that isn't cached yet, with one batch call per provider,
+     * so laying the book out later only finds hits. Meant to run off the main thread, when the book is opened, so
+     * providers that {@link RecipeProvider#canResolveOffThread can't} are left to be looked up as the pages are laid out.
+     */
+    public static void resolveAll(BookDocument book)
+    {
+        int fromGeneration = getGeneration();
+        Map<ResourceLocation, Map<Key, RecipeProvider.RecipeRequest>> pending = Maps.newHashMap();
+        book.visitLoadedElements((section, element) -> {
+            if (!(element instanceof ElementRecipe))
+                return;
+
+            ElementRecipe recipe = (ElementRecipe) element;
+            RecipeProvider.RecipeRequest request = recipe.getRecipeRequest();
+            if (request == null)
+                return;
+
+            Key key = Key.of(recipe.getRecipeProviderKey(), request);
+            if (cache.getIfPresent(key) == null)
+                pending.computeIfAbsent(recipe.getRecipeProviderKey(), k -> Maps.newLinkedHashMap()).put(key, request);
+        });
+
+        for (Map.Entry<ResourceLocation, Map<Key, RecipeProvider.RecipeRequest>> entry : pending.entrySet())
+        {
+            RecipeProvider provider = RecipeProvider.registry.get(entry.getKey());
+            if (provider == null || !provider.canResolveOffThread())
+                continue;
+
+            List<Key> keys = Lists.newArrayList(entry.getValue().keySet());
+            List<RecipeProvider.ProvidedComponents> results = provider.provideAllRecipeComponents(Lists.newArrayList(entry.getValue().values()));
+            if (results.size() != keys.size())
+            {
+                GuidebookMod.logger.warn("Recipe provider {} returned {} results for {} recipes, ignoring them", entry.getKey(), results.size(), keys.size());
+                continue;
+            }
+
+            misses.addAndGet(keys.size());
+            for (int i = 0; i < keys.size(); i++)
+            {
+                store(keys.get(i), results.get(i), fromGeneration);
+            }
+        }
+    }
+
+    private static synchronized int getGeneration()
+    {
+        return generation;
+    }
+
+    private static synchronized void store(Key key, @Nullable RecipeProvider.ProvidedComponents components, int fromGeneration)
+    {
+        if (fromGeneration != generation)
+            return;
+
+        if (components == null || components.delegate == null)
+            cache.put(key, Optional.ofNullable(components));
+    }
+
+    public static long getHits()
+    {
+        return hits.get();
+    }
+
+    public static long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Drops every entry. Called along with the providers' own caches, whenever recipes may have changed.
+     */
+    public static synchronized void invalidate()
+    {
+        generation++;
+        GuidebookMod.logger.debug("Clearing recipe component cache: {} entries, {} hits, {} misses so far", cache.size(), hits.get(), misses.get());
+        cache.invalidateAll();
+    }
+
+    private static final class Key
+    {
+        private final ResourceLocation providerKey;
+        private final ResourceLocation recipeKey;
+        private final Item item;
+        private final int damage;
+        private final NBTTagCompound tag;
+        private final int recipeIndex;
+
+        private static Key of(ResourceLocation providerKey, RecipeProvider.RecipeRequest request)
+        {
+            if (request.recipeKey != null)
+                return new Key(providerKey, request.recipeKey, null, 0, null, 0);
+
+            // Providers don't look at the count, so stacks differing only in that share an entry
+            ItemStack output = request.targetOutput;
+            NBTTagCompound tag = output.getTagCompound();
+            return new Key(providerKey, null, output.getItem(), output.getItemDamage(), tag != null ? tag.copy() : null, request.recipeIndex);
+        }
+
+        private Key(ResourceLocation providerKey, @Nullable ResourceLocation recipeKey, @Nullable Item item, int damage, @Nullable NBTTagCompound tag, int recipeIndex)
+        {
+            this.providerKey = providerKey;
+            this.recipeKey = recipeKey;
+            this.item = item;
+            this.damage = damage;
+            this.tag = tag;
+            this.recipeIndex = recipeIndex;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return item == other.item
+                    && damage == other.damage
+                    && recipeIndex == other.recipeIndex
+                    && providerKey.equals(other.providerKey)
+                    && Objects.equals(recipeKey, other.recipeKey)
+                    && Objects.equals(tag, other.tag);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(providerKey, recipeKey, item, damage, tag, recipeIndex);
+        }
+    }
+}
@@ -1,15 +1,13 @@
 package gigaherz.guidebook.guidebook.recipe;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import gigaherz.guidebook.GuidebookMod;
+import gigaherz.guidebook.guidebook.ItemExpansionCache;
 import gigaherz.guidebook.guidebook.drawing.VisualElement;
 import gigaherz.guidebook.guidebook.elements.ElementImage;
 import gigaherz.guidebook.guidebook.elements.ElementStack;
-import net.minecraft.creativetab.CreativeTabs;
-import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
-import net.minecraft.nbt.NBTTagCompound;
-import net.minecraft.util.NonNullList;
 import net.minecraft.util.ResourceLocation;
 import net.minecraftforge.event.RegistryEvent;
 import net.minecraftforge.fml.common.Mod;
@@ -21,6 +19,8 @@ import net.minecraftforge.registries.RegistryBuilder;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -73,6 +73,52 @@ public abstract class RecipeProvider
     @Nullable
     public abstract ProvidedComponents provideRecipeComponents(@Nonnull ResourceLocation recipeKey);
 
+    /**
+     * Whether the provider can look recipes up from the background thread that lays out books ahead of time.
+     * Providers that don't are only ever asked from the main thread, when the page is actually laid out. False by default.
+     */
+    public boolean canResolveOffThread()
+    {
+        return false;
+    }
+
+    /**
+     * Looks up several recipes at once, for when a whole book is resolved ahead of time.
+     * Only called from the background thread for providers that {@link #canResolveOffThread}.
+     * The default implementation asks for each one in turn, providers can override it to share the work between them.
+     *
+     * @param requests The recipes to look up
+     * @return The components for each request, in the same order, with null for recipes that were not found
+     */
+    public List<ProvidedComponents> provideAllRecipeComponents(List<RecipeRequest> requests)
+    {
+        List<ProvidedComponents> results = Lists.newArrayListWithCapacity(requests.size());
+        for (RecipeRequest request : requests)
+        {
+            results.add(request.recipeKey != null
+                    ? provideRecipeComponents(request.recipeKey)
+                    : provideRecipeComponents(request.targetOutput, request.recipeIndex));
+        }
+        return results;
+    }
+
+    /**
+     * Called when recipes may have changed, currently on every resource reload.
+     * Providers that index or cache recipes should drop that data here. Does nothing by default.
+     */
+    public void invalidateCaches()
+    {
+    }
+
+    public static void invalidateAllCaches()
+    {
+        for (RecipeProvider provider : registry.values())
+        {
+            provider.invalidateCaches();
+        }
+        RecipeComponentCache.invalidate();
+    }
+
     /**
      * A helper method designed to validate ItemStacks from recipes with metadata that is OreDictionary.WILDCARD_VALUE
      * If the input is a tool/armor, sets it to full durability
@@ -84,31 +130,42 @@ public abstract class RecipeProvider
      */
     protected static List<ItemStack> copyAndExpand(@Nonnull ItemStack stack)
     {
-        NonNullList<ItemStack> stacks = NonNullList.create();
         ItemStack base = stack.copy();
-        stacks.add(base);
 
         if (base.isItemStackDamageable()) base.setItemDamage(0);
         if (base.getMetadata() == OreDictionary.WILDCARD_VALUE && !base.getHasSubtypes()) base.setItemDamage(0);
         else if (base.getMetadata() == OreDictionary.WILDCARD_VALUE && base.getHasSubtypes())
         {
-            Item item = base.getItem();
-            int stackSize = base.getCount();
-            NBTTagCompound tag = (base.hasTagCompound() && base.getTagCompound() != null) ? base.getTagCompound().copy() : null;
-            NonNullList<ItemStack> processed_items = NonNullList.create();
-            NonNullList<ItemStack> subItems = NonNullList.create();
-            item.getSubItems(CreativeTabs.SEARCH, subItems);
-
-            for (ItemStack subItem : subItems)
-            {
-                subItem = subItem.copy();
-                subItem.setCount(stackSize);
-                subItem.setTagCompound(tag);
-                processed_items.add(subItem);
-            }
-            stacks = subItems;
+            // Shared expansion, only the stacks that need a different count or tag are copied
+            ItemStack[] subItems = ItemExpansionCache.getSubItems(base.getItem());
+            return Arrays.asList(ItemExpansionCache.withCountAndTag(subItems, base.getCount(), base.getTagCompound()));
+        }
+        return Collections.singletonList(base);
+    }
+
+    /**
+     * A recipe to look up, either by its registry name, or by its output and the index among the recipes for that output
+     */
+    public static class RecipeRequest
+    {
+        @Nullable
+        public final ResourceLocation recipeKey;
+        public final ItemStack targetOutput;
+        public final int recipeIndex;
+
+        public RecipeRequest(@Nonnull ResourceLocation recipeKey)
+        {
+            this.recipeKey = recipeKey;
+            this.targetOutput = ItemStack.EMPTY;
+            this.recipeIndex = 0;
+        }
+
+        public RecipeRequest(@Nonnull ItemStack targetOutput, int recipeIndex)
+        {
+            this.recipeKey = null;
+            this.targetOutput = targetOutput;
+            this.recipeIndex = recipeIndex;
         }
-        return stacks;
     }
 
     /**
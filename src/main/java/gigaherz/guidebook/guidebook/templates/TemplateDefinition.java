@@ -12,14 +12,29 @@ public class TemplateDefinition
     public final List<Element> elements = Lists.newArrayList();
     public NamedNodeMap attributes;
 
+    // The document the template was parsed from. Library templates are shared by every book that includes them, and
+    // DOM nodes aren't safe to use from two threads at once even just to read them, so their uses lock on this.
+    public Object lock = this;
+
+    public void parseAttributes(IConditionSource book, Element target)
+    {
+        synchronized (lock)
+        {
+            target.parse(book, attributes);
+        }
+    }
+
     public List<Element> applyTemplate(IConditionSource book, List<Element> sourceElements)
     {
         List<Element> output = Lists.newArrayList();
-        for (Element element : elements)
+        synchronized (lock)
         {
-            Element t = element.applyTemplate(book, sourceElements);
-            if (t != null)
-                output.add(t);
+            for (Element element : elements)
+            {
+                Element t = element.applyTemplate(book, sourceElements);
+                if (t != null)
+                    output.add(t);
+            }
         }
         return output;
     }
@@ -1,18 +1,21 @@
 package gigaherz.guidebook.guidebook.templates;
 
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import gigaherz.guidebook.guidebook.BookDocument;
 import gigaherz.guidebook.guidebook.IConditionSource;
 import gigaherz.guidebook.guidebook.conditions.ConditionContext;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.IResource;
 import net.minecraft.util.ResourceLocation;
+import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -66,16 +69,58 @@ public class TemplateLibrary implements IConditionSource
 
         attributes.removeNamedItem("id");
         page.attributes = attributes;
+        page.lock = templateItem.getOwnerDocument();
     }
 
     public static Map<String, TemplateLibrary> LIBRARIES = Maps.newHashMap();
+    private static final Map<String, String> SOURCE_HASHES = Maps.newHashMap();
 
-    public static void clear()
+    public static synchronized void clear()
     {
         LIBRARIES.clear();
+        SOURCE_HASHES.clear();
     }
 
-    public static TemplateLibrary get(String path)
+    /**
+     * Forgets a library whose source has changed, so the next book that includes it reads it again.
+     */
+    public static synchronized void invalidate(ResourceLocation location)
+    {
+        // Includes may spell the same location differently, so compare them as locations
+        LIBRARIES.keySet().removeIf(path -> location.equals(new ResourceLocation(path)));
+        SOURCE_HASHES.keySet().removeIf(path -> location.equals(new ResourceLocation(path)));
+    }
+
+    /**
+     * @return a hash of the library's current source, used to tell whether cached books that include it are still valid,
+     * or null if the library can't be read
+     */
+    @Nullable
+    public static synchronized String getSourceHash(String path)
+    {
+        if (SOURCE_HASHES.containsKey(path))
+            return SOURCE_HASHES.get(path);
+
+        String hash = null;
+        try
+        {
+            IResource res = Minecraft.getMinecraft().getResourceManager().getResource(new ResourceLocation(path));
+            try (InputStream stream = res.getInputStream())
+            {
+                hash = Hashing.sha256().hashBytes(IOUtils.toByteArray(stream)).toString();
+            }
+        }
+        catch (IOException e)
+        {
+            // Missing, so nothing that includes it can be validated
+        }
+
+        SOURCE_HASHES.put(path, hash);
+        return hash;
+    }
+
+    // Synchronized so books parsed in parallel share one copy of each library.
+    public static synchronized TemplateLibrary get(String path)
     {
         TemplateLibrary lib = LIBRARIES.get(path);
         if (lib == null)